@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2019  Selebrator
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.selebrator.lootcave.benchmark;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import de.selebrator.lootcave.SpecialChest;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Writing and reading 10k chests with SpecialChest.Adapter, without touching the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AdapterBenchmark {
+
+	private final SpecialChest.Adapter adapter = new SpecialChest.Adapter();
+	private List<SpecialChest> chests;
+	private String json;
+
+	@Setup
+	public void setUp() throws IOException {
+		Fixtures.init();
+		this.chests = Fixtures.chests(10000, 42);
+		this.json = this.write();
+	}
+
+	@Benchmark
+	public String write() throws IOException {
+		final StringWriter out = new StringWriter(this.chests.size() * 200);
+		final JsonWriter writer = new JsonWriter(out);
+		writer.beginArray();
+		for(SpecialChest chest : this.chests) {
+			this.adapter.write(writer, chest);
+		}
+		writer.endArray();
+		writer.flush();
+		return out.toString();
+	}
+
+	@Benchmark
+	public List<SpecialChest> read() throws IOException {
+		final List<SpecialChest> chests = new ArrayList<>(this.chests.size());
+		final JsonReader reader = new JsonReader(new StringReader(this.json));
+		reader.beginArray();
+		while(reader.hasNext()) {
+			chests.add(SpecialChest.Adapter.readBuilder(reader).build(worldName -> Fixtures.WORLD, key -> Fixtures.LOOT_TABLE));
+		}
+		reader.endArray();
+		return chests;
+	}
+}
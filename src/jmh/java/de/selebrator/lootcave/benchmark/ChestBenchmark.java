@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2019  Selebrator
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.selebrator.lootcave.benchmark;
+
+import de.selebrator.lootcave.SpecialChest;
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.inventory.Inventory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Rolling a chest's loot with a synthetic loot table and placing its block.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ChestBenchmark {
+
+	private final Random random = new Random(42);
+	private SpecialChest chest;
+	private HumanEntity player;
+
+	@Setup
+	public void setUp() {
+		Fixtures.init();
+		this.chest = Fixtures.chests(1, 42).get(0);
+		this.player = Fixtures.player(UUID.randomUUID());
+	}
+
+	@Benchmark
+	public Inventory generateInventory() {
+		return this.chest.generateInventory(this.player, this.random);
+	}
+
+	@Benchmark
+	public boolean place() {
+		return this.chest.place(true);
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2019  Selebrator
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.selebrator.lootcave.benchmark;
+
+import de.selebrator.lootcave.LootCavePlugin;
+import de.selebrator.lootcave.SpecialChest;
+import de.selebrator.lootcave.listener.LootCaveChestListener;
+import de.selebrator.lootcave.storage.PlayerLootStore;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.event.inventory.InventoryOpenEvent;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryView;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.java.JavaPluginLoader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Opening a chest, for a registered chest whose loot the player already rolled, an unregistered chest
+ * in a chunk with chests, an unregistered chest in a chunk without any chest and a furnace.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ChestListenerBenchmark {
+
+	private LootCavePlugin plugin;
+	private LootCaveChestListener listener;
+	private InventoryOpenEvent hit;
+	private InventoryOpenEvent miss;
+	private InventoryOpenEvent missEmptyChunk;
+	private InventoryOpenEvent otherInventory;
+
+	@Setup
+	public void setUp() throws IOException {
+		Fixtures.init();
+		final Path dataFolder = Files.createTempDirectory("lootcave-benchmark");
+		this.plugin = new LootCavePlugin(new JavaPluginLoader(Bukkit.getServer()), new PluginDescriptionFile("LootCave", "benchmark", LootCavePlugin.class.getName()), dataFolder.toFile(), new File(dataFolder.toFile(), "LootCave.jar")) {
+		};
+		this.plugin.playerLoot = new PlayerLootStore(this.plugin, this.plugin.metrics, dataFolder.resolve("loot"));
+		this.plugin.playerLoot.load();
+		final List<SpecialChest> chests = Fixtures.chests(10000, 42);
+		this.plugin.getChestRegistry().replaceAll(chests);
+		this.listener = new LootCaveChestListener(this.plugin);
+
+		final HumanEntity player = Fixtures.player(UUID.randomUUID());
+		final SpecialChest chest = chests.get(0);
+		this.hit = event(player, Fixtures.inventory(InventoryType.CHEST, new Location(Fixtures.WORLD, chest.getX(), chest.getY(), chest.getZ())));
+		this.miss = event(player, Fixtures.inventory(InventoryType.CHEST, new Location(Fixtures.WORLD, chest.getX(), chest.getY() + 100, chest.getZ())));
+		final int[] outside = Fixtures.outsideChests(chests.size(), chest.getX(), chest.getY(), chest.getZ());
+		this.missEmptyChunk = event(player, Fixtures.inventory(InventoryType.CHEST, new Location(Fixtures.WORLD, outside[0], outside[1], outside[2])));
+		this.otherInventory = event(player, Fixtures.inventory(InventoryType.FURNACE, new Location(Fixtures.WORLD, 0, 0, 0)));
+		//rolls the loot once, every later open shows the same inventory
+		this.listener.onInventoryOpen(this.hit);
+	}
+
+	private static InventoryOpenEvent event(HumanEntity player, Inventory top) {
+		final Inventory bottom = Fixtures.inventory(InventoryType.PLAYER, null);
+		return new InventoryOpenEvent(new InventoryView() {
+			@Override
+			public Inventory getTopInventory() {
+				return top;
+			}
+
+			@Override
+			public Inventory getBottomInventory() {
+				return bottom;
+			}
+
+			@Override
+			public HumanEntity getPlayer() {
+				return player;
+			}
+
+			@Override
+			public InventoryType getType() {
+				return top.getType();
+			}
+		});
+	}
+
+	@Benchmark
+	public boolean hit() {
+		this.listener.onInventoryOpen(this.hit);
+		return this.hit.isCancelled();
+	}
+
+	@Benchmark
+	public boolean miss() {
+		this.listener.onInventoryOpen(this.miss);
+		return this.miss.isCancelled();
+	}
+
+	@Benchmark
+	public boolean missEmptyChunk() {
+		this.listener.onInventoryOpen(this.missEmptyChunk);
+		return this.missEmptyChunk.isCancelled();
+	}
+
+	@Benchmark
+	public boolean otherInventory() {
+		this.listener.onInventoryOpen(this.otherInventory);
+		return this.otherInventory.isCancelled();
+	}
+}
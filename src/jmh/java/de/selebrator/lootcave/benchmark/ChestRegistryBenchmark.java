@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2019  Selebrator
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.selebrator.lootcave.benchmark;
+
+import de.selebrator.lootcave.ChestRegistry;
+import de.selebrator.lootcave.SpecialChest;
+import org.bukkit.Location;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Looking up chests by position, for positions with a chest, without a chest in a chunk with chests,
+ * and in a chunk without any chest, which is the common miss.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ChestRegistryBenchmark {
+
+	private static final int POSITIONS = 1024;
+
+	@Param({"1000", "10000", "100000"})
+	public int chests;
+
+	private final ChestRegistry registry = new ChestRegistry();
+	private final int[][] hits = new int[POSITIONS][];
+	private final int[][] misses = new int[POSITIONS][];
+	private final int[][] emptyChunkMisses = new int[POSITIONS][];
+	private final Location[] hitLocations = new Location[POSITIONS];
+	private int next;
+
+	@Setup
+	public void setUp() {
+		Fixtures.init();
+		final List<SpecialChest> chests = Fixtures.chests(this.chests, 42);
+		this.registry.replaceAll(chests);
+		for(int i = 0; i < POSITIONS; i++) {
+			final SpecialChest chest = chests.get(i * chests.size() / POSITIONS);
+			this.hits[i] = new int[] {chest.getX(), chest.getY(), chest.getZ()};
+			//chests never spawn above y 60
+			this.misses[i] = new int[] {chest.getX(), chest.getY() + 100, chest.getZ()};
+			this.emptyChunkMisses[i] = Fixtures.outsideChests(this.chests, chest.getX(), chest.getY(), chest.getZ());
+			this.hitLocations[i] = new Location(Fixtures.WORLD, chest.getX(), chest.getY(), chest.getZ());
+		}
+	}
+
+	private int next() {
+		return this.next = (this.next + 1) & (POSITIONS - 1);
+	}
+
+	@Benchmark
+	public SpecialChest hit() {
+		final int[] position = this.hits[this.next()];
+		return this.registry.get(Fixtures.WORLD_NAME, position[0], position[1], position[2]);
+	}
+
+	@Benchmark
+	public SpecialChest miss() {
+		final int[] position = this.misses[this.next()];
+		return this.registry.get(Fixtures.WORLD_NAME, position[0], position[1], position[2]);
+	}
+
+	@Benchmark
+	public SpecialChest missEmptyChunk() {
+		final int[] position = this.emptyChunkMisses[this.next()];
+		return this.registry.get(Fixtures.WORLD_NAME, position[0], position[1], position[2]);
+	}
+
+	@Benchmark
+	public SpecialChest hitByLocation() {
+		return this.registry.get(this.hitLocations[this.next()]);
+	}
+}
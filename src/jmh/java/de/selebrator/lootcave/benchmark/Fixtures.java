@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2019  Selebrator
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.selebrator.lootcave.benchmark;
+
+import de.selebrator.lootcave.ChestRegistry;
+import de.selebrator.lootcave.SpecialChest;
+import org.bukkit.*;
+import org.bukkit.attribute.AttributeInstance;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.Chest;
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.loot.LootTable;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.logging.Logger;
+
+/*
+ * Stand-ins for the server, worlds, players, inventories, blocks and loot tables, built from dynamic proxies.
+ * Every method that is not implemented returns null, zero or false, so only what the benchmarked code touches is implemented.
+ */
+final class Fixtures {
+
+	static final String WORLD_NAME = "world";
+	static final World WORLD = world(WORLD_NAME);
+	static final LootTable LOOT_TABLE = lootTable(new NamespacedKey("lootcave", "benchmark"));
+	static final String[] GROUPS = {"caves", "mines", "ruins", "towers", "temples", "easy", "hard", "event"};
+
+	private Fixtures() {
+	}
+
+	static {
+		final Logger logger = Logger.getLogger("LootCaveBenchmark");
+		Bukkit.setServer(stub(Server.class, (method, args) -> {
+			switch(method) {
+				case "getLogger":
+					return logger;
+				case "getName":
+				case "getVersion":
+				case "getBukkitVersion":
+					return "benchmark";
+				case "getWorld":
+					return WORLD_NAME.equals(args[0]) ? WORLD : null;
+				case "createInventory":
+					return inventory(args[1] instanceof InventoryType ? (InventoryType) args[1] : InventoryType.CHEST, null);
+				case "getLootTable":
+					return LOOT_TABLE;
+				case "createBlockData":
+					return args[0] instanceof Material ? blockData((Material) args[0]) : Answer.DEFAULT;
+				default:
+					return Answer.DEFAULT;
+			}
+		}));
+	}
+
+	//loads the class, which installs the server
+	static void init() {
+	}
+
+	interface Answer {
+		Object DEFAULT = new Object();
+
+		//returns DEFAULT to fall back to null, zero or false
+		Object answer(String method, Object[] args) throws Throwable;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <T> T stub(Class<T> type, Answer answer) {
+		return (T) Proxy.newProxyInstance(Fixtures.class.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+			switch(method.getName()) {
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return type.getSimpleName();
+			}
+			final Object result = answer.answer(method.getName(), args == null ? new Object[0] : args);
+			return result != Answer.DEFAULT ? result : defaultValue(method.getReturnType());
+		});
+	}
+
+	private static Object defaultValue(Class<?> type) {
+		if(type == boolean.class) {
+			return false;
+		} else if(type == int.class) {
+			return 0;
+		} else if(type == long.class) {
+			return 0L;
+		} else if(type == double.class) {
+			return 0d;
+		} else if(type == float.class) {
+			return 0f;
+		} else if(type == short.class) {
+			return (short) 0;
+		} else if(type == byte.class) {
+			return (byte) 0;
+		} else if(type == char.class) {
+			return (char) 0;
+		}
+		return null;
+	}
+
+	static World world(String name) {
+		return stub(World.class, (method, args) -> {
+			switch(method) {
+				case "getName":
+					return name;
+				case "isChunkLoaded":
+					return true;
+				case "getBlockAt":
+					return args.length == 1
+							? block((Location) args[0])
+							: block(new Location(Fixtures.WORLD, (int) args[0], (int) args[1], (int) args[2]));
+				default:
+					return Answer.DEFAULT;
+			}
+		});
+	}
+
+	//chest block data of any material, accepts any chest property
+	static org.bukkit.block.data.type.Chest blockData(Material material) {
+		return stub(org.bukkit.block.data.type.Chest.class, (method, args) -> {
+			switch(method) {
+				case "getMaterial":
+					return material;
+				default:
+					return Answer.DEFAULT;
+			}
+		});
+	}
+
+	//a block that remembers its type and block data and accepts any chest state
+	static Block block(Location location) {
+		final Material[] type = {Material.AIR};
+		final org.bukkit.block.data.BlockData[] data = {blockData(Material.AIR)};
+		final Inventory inventory = inventory(InventoryType.CHEST, location);
+		final Chest state = stub(Chest.class, (method, args) -> {
+			switch(method) {
+				case "getBlockData":
+					return data[0];
+				case "getBlockInventory":
+				case "getInventory":
+					return inventory;
+				case "update":
+					return true;
+				default:
+					return Answer.DEFAULT;
+			}
+		});
+		return stub(Block.class, (method, args) -> {
+			switch(method) {
+				case "getType":
+					return type[0];
+				case "setType":
+					type[0] = (Material) args[0];
+					data[0] = blockData(type[0]);
+					return null;
+				case "setBlockData":
+					data[0] = (org.bukkit.block.data.BlockData) args[0];
+					type[0] = data[0].getMaterial();
+					return null;
+				case "isEmpty":
+					return type[0] == Material.AIR;
+				case "getState":
+					return state;
+				case "getBlockData":
+					return data[0];
+				case "getLocation":
+					return location;
+				default:
+					return Answer.DEFAULT;
+			}
+		});
+	}
+
+	static HumanEntity player(UUID uuid) {
+		final AttributeInstance luck = stub(AttributeInstance.class, (method, args) -> Answer.DEFAULT);
+		return stub(HumanEntity.class, (method, args) -> {
+			switch(method) {
+				case "getUniqueId":
+					return uuid;
+				case "getName":
+					return "Player";
+				case "getAttribute":
+					return luck;
+				default:
+					return Answer.DEFAULT;
+			}
+		});
+	}
+
+	//an inventory backed by an array
+	static Inventory inventory(InventoryType type, Location location) {
+		final ItemStack[][] contents = {new ItemStack[type.getDefaultSize()]};
+		return stub(Inventory.class, (method, args) -> {
+			switch(method) {
+				case "getType":
+					return type;
+				case "getLocation":
+					return location;
+				case "getSize":
+					return contents[0].length;
+				case "getContents":
+				case "getStorageContents":
+					return contents[0].clone();
+				case "setContents":
+				case "setStorageContents":
+					contents[0] = Arrays.copyOf((ItemStack[]) args[0], contents[0].length);
+					return null;
+				case "getItem":
+					return contents[0][(int) args[0]];
+				case "setItem":
+					contents[0][(int) args[0]] = (ItemStack) args[1];
+					return null;
+				case "clear":
+					Arrays.fill(contents[0], null);
+					return null;
+				default:
+					return Answer.DEFAULT;
+			}
+		});
+	}
+
+	//fills a few slots, like a small vanilla chest loot table
+	static LootTable lootTable(NamespacedKey key) {
+		final Material[] materials = {Material.BREAD, Material.IRON_INGOT, Material.GOLD_INGOT, Material.COAL, Material.ARROW};
+		return stub(LootTable.class, (method, args) -> {
+			switch(method) {
+				case "getKey":
+					return key;
+				case "fillInventory":
+					final Inventory inventory = (Inventory) args[0];
+					final Random random = (Random) args[1];
+					for(int i = 0; i < 5; i++) {
+						inventory.setItem(random.nextInt(inventory.getSize()), new ItemStack(materials[random.nextInt(materials.length)], 1 + random.nextInt(8)));
+					}
+					return null;
+				default:
+					return Answer.DEFAULT;
+			}
+		});
+	}
+
+	//the side of the square around 0, 0 that chests(count, seed) spreads its chests over
+	private static int side(int count) {
+		return (int) Math.ceil(Math.sqrt(count)) * 8;
+	}
+
+	//a position in a chunk without any of the chests of chests(count, seed), a whole side east of the given one
+	static int[] outsideChests(int count, int x, int y, int z) {
+		return new int[] {x + side(count) + 16, y, z};
+	}
+
+	//chests spread over a square area, with one to three groups each
+	static List<SpecialChest> chests(int count, long seed) {
+		final Random random = new Random(seed);
+		final int side = side(count);
+		final Set<Long> positions = new HashSet<>();
+		final List<SpecialChest> chests = new ArrayList<>(count);
+		while(chests.size() < count) {
+			final int x = random.nextInt(side) - side / 2;
+			final int y = 10 + random.nextInt(50);
+			final int z = random.nextInt(side) - side / 2;
+			if(!positions.add(ChestRegistry.blockKey(x, y, z))) {
+				continue;
+			}
+			final SpecialChest.Builder chest = new SpecialChest.Builder(WORLD_NAME, x, y, z, LOOT_TABLE);
+			chest.setProbability(0.5);
+			chest.setFacing(BlockFace.NORTH);
+			for(int i = 1 + random.nextInt(3); i > 0; i--) {
+				chest.addGroup(GROUPS[random.nextInt(GROUPS.length)]);
+			}
+			chests.add(chest.build(worldName -> WORLD, key -> LOOT_TABLE));
+		}
+		return chests;
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2019  Selebrator
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.selebrator.lootcave.benchmark;
+
+import de.selebrator.lootcave.ChestRegistry;
+import de.selebrator.lootcave.GroupQuery;
+import de.selebrator.lootcave.SpecialChest;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/*
+ * Selecting chests by group, by testing every chest with isInAnyGroup and through the registry's group index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GroupBenchmark {
+
+	@Param({"10000", "100000"})
+	public int chests;
+
+	private final ChestRegistry registry = new ChestRegistry();
+	private final List<String> groups = Arrays.asList("towers", "event");
+	private final GroupQuery union = GroupQuery.parse("towers,event");
+	private final GroupQuery intersection = GroupQuery.parse("caves&hard,!event");
+
+	@Setup
+	public void setUp() {
+		Fixtures.init();
+		this.registry.replaceAll(Fixtures.chests(this.chests, 42));
+	}
+
+	@Benchmark
+	public List<SpecialChest> filterAnyGroup() {
+		return this.registry.values().stream()
+				.filter(chest -> chest.isInAnyGroup(this.groups))
+				.collect(Collectors.toList());
+	}
+
+	@Benchmark
+	public List<SpecialChest> selectUnion() {
+		return this.registry.select(this.union);
+	}
+
+	@Benchmark
+	public List<SpecialChest> selectIntersection() {
+		return this.registry.select(this.intersection);
+	}
+}
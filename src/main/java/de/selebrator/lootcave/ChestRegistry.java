@@ -0,0 +1,593 @@
+/*
+ * Copyright (C) 2019  Selebrator
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.selebrator.lootcave;
+
+import de.selebrator.lootcave.util.LongObjectHashMap;
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/*
+ * Every registered chest, sharded by world name and chunk, then indexed by packed block coordinates.
+ * A lookup in a chunk without any chest is rejected after a single primitive chunk key probe.
+ * Chests are indexed by world name, so chests of worlds that are not loaded yet are kept and found once the world loads.
+ *
+ * Reads go through an immutable snapshot and are safe from any thread.
+ * Writes copy the shards they touch and publish a new snapshot atomically, so readers never see a partial edit.
+ * Edits of many chests should be batched with update, which copies every touched shard only once.
+ *
+ * Every chest also gets a dense slot, and every group a bitset of the slots of its chests.
+ * Group queries combine those bitsets instead of testing every chest.
+ *
+ * The chests of a world that is not loaded are kept dormant in a flat array instead of indexed by chunk.
+ * They are still saved and selected by group. The first lookup in a dormant world indexes its chests for that snapshot.
+ * The chunk index is built again when the world loads.
+ *
+ * Area queries only visit the chunks the area overlaps. Nearest queries visit rings of chunks around the center
+ * until no closer chest can be found, and fall back to every chunk of the world once that is cheaper.
+ */
+public class ChestRegistry {
+
+	private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+	//26 bits x, 26 bits z, 12 bits y, same layout as minecraft's block positions
+	public static long blockKey(int x, int y, int z) {
+		return ((long) x & 0x3FFFFFF) << 38 | ((long) z & 0x3FFFFFF) << 12 | (long) y & 0xFFF;
+	}
+
+	public static long chunkKey(int chunkX, int chunkZ) {
+		return (long) chunkX << 32 | chunkZ & 0xFFFFFFFFL;
+	}
+
+	public static int chunkX(long chunkKey) {
+		return (int) (chunkKey >> 32);
+	}
+
+	public static int chunkZ(long chunkKey) {
+		return (int) chunkKey;
+	}
+
+	//the current state. it never changes, later edits publish a new snapshot
+	public Snapshot snapshot() {
+		return this.snapshot;
+	}
+
+	public SpecialChest get(String worldName, int x, int y, int z) {
+		return this.snapshot.get(worldName, x, y, z);
+	}
+
+	public SpecialChest get(World world, int x, int y, int z) {
+		return this.snapshot.get(world.getName(), x, y, z);
+	}
+
+	public SpecialChest get(Location location) {
+		return this.snapshot.get(location);
+	}
+
+	public boolean contains(Location location) {
+		return this.snapshot.get(location) != null;
+	}
+
+	public List<SpecialChest> values() {
+		return this.snapshot.values();
+	}
+
+	public int size() {
+		return this.snapshot.size;
+	}
+
+	public List<SpecialChest> select(GroupQuery query) {
+		return this.snapshot.select(query);
+	}
+
+	//keeps the world's chests dormant until the world is woken again
+	public void sleep(String worldName) {
+		this.update(editor -> editor.sleep(worldName));
+	}
+
+	public void wake(String worldName) {
+		this.update(editor -> editor.wake(worldName));
+	}
+
+	public List<SpecialChest> withinCuboid(World world, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		return this.snapshot.withinCuboid(world.getName(), minX, minY, minZ, maxX, maxY, maxZ);
+	}
+
+	public List<SpecialChest> withinRadius(Location center, double radius) {
+		return this.snapshot.withinRadius(center.getWorld().getName(), center.getX(), center.getY(), center.getZ(), radius);
+	}
+
+	public List<SpecialChest> nearest(Location center, int count, double maxDistance) {
+		return this.snapshot.nearest(center.getWorld().getName(), center.getX(), center.getY(), center.getZ(), count, maxDistance);
+	}
+
+	//squared distance between the point and the center of the chest's block
+	public static double distanceSquared(SpecialChest chest, double x, double y, double z) {
+		final double dx = chest.getX() + 0.5 - x;
+		final double dy = chest.getY() + 0.5 - y;
+		final double dz = chest.getZ() + 0.5 - z;
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	//applies every change of the editor and publishes them at once
+	public synchronized void update(Consumer<Editor> changes) {
+		final Editor editor = new Editor(this.snapshot);
+		changes.accept(editor);
+		this.snapshot = editor.build();
+	}
+
+	//returns the chest that was replaced, if any
+	public SpecialChest add(SpecialChest chest) {
+		final SpecialChest[] previous = new SpecialChest[1];
+		this.update(editor -> previous[0] = editor.add(chest));
+		return previous[0];
+	}
+
+	public SpecialChest remove(SpecialChest chest) {
+		final SpecialChest[] previous = new SpecialChest[1];
+		this.update(editor -> previous[0] = editor.remove(chest));
+		return previous[0];
+	}
+
+	public void removeAll(Collection<SpecialChest> chests) {
+		this.update(editor -> chests.forEach(editor::remove));
+	}
+
+	//replaces every chest. of several chests at the same position, the first one wins
+	public void replaceAll(Collection<SpecialChest> chests) {
+		final Editor editor = new Editor(Snapshot.EMPTY);
+		chests.forEach(editor::addIfAbsent);
+		final Snapshot snapshot = editor.build();
+		synchronized(this) {
+			this.snapshot = snapshot;
+		}
+	}
+
+	public static final class Snapshot {
+		private static final Snapshot EMPTY = new Snapshot(new HashMap<>(), new HashMap<>(), 0, new SpecialChest[0], new IdentityHashMap<>(), new BitSet(), new HashMap<>());
+
+		private final Map<String, LongObjectHashMap<ChunkShard>> chunksByWorld;
+		private final Map<String, SpecialChest[]> dormantByWorld;
+		//indexes of dormant worlds built by lookups, kept as long as the world's chests do not change
+		private final Map<String, LongObjectHashMap<ChunkShard>> dormantChunks;
+		private final int size;
+		private final SpecialChest[] chestsBySlot;
+		//the reverse of chestsBySlot, by identity
+		private final Map<SpecialChest, Integer> slotsByChest;
+		private final BitSet slots;
+		private final Map<String, BitSet> slotsByGroup;
+		private volatile List<SpecialChest> values;
+
+		private Snapshot(Map<String, LongObjectHashMap<ChunkShard>> chunksByWorld, Map<String, SpecialChest[]> dormantByWorld, int size, SpecialChest[] chestsBySlot, Map<SpecialChest, Integer> slotsByChest, BitSet slots, Map<String, BitSet> slotsByGroup) {
+			this.chunksByWorld = chunksByWorld;
+			this.dormantByWorld = dormantByWorld;
+			this.dormantChunks = new ConcurrentHashMap<>();
+			this.size = size;
+			this.chestsBySlot = chestsBySlot;
+			this.slotsByChest = slotsByChest;
+			this.slots = slots;
+			this.slotsByGroup = slotsByGroup;
+		}
+
+		//the chunks of a dormant world are indexed on first use. the index must not be changed
+		private LongObjectHashMap<ChunkShard> chunks(String worldName) {
+			final LongObjectHashMap<ChunkShard> chunks = this.chunksByWorld.get(worldName);
+			if(chunks != null) {
+				return chunks;
+			}
+			final SpecialChest[] dormant = this.dormantByWorld.get(worldName);
+			return dormant == null ? null : this.dormantChunks.computeIfAbsent(worldName, name -> inflate(dormant));
+		}
+
+		private ChunkShard getShard(String worldName, int chunkX, int chunkZ) {
+			final LongObjectHashMap<ChunkShard> chunks = this.chunks(worldName);
+			return chunks == null ? null : chunks.get(chunkKey(chunkX, chunkZ));
+		}
+
+		public SpecialChest get(String worldName, int x, int y, int z) {
+			final ChunkShard shard = this.getShard(worldName, x >> 4, z >> 4);
+			return shard == null ? null : shard.chests.get(blockKey(x, y, z));
+		}
+
+		public SpecialChest get(Location location) {
+			if(location.getWorld() == null) {
+				return null;
+			}
+			return this.get(location.getWorld().getName(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
+		}
+
+		//the chests inside the box, bounds inclusive
+		public List<SpecialChest> withinCuboid(String worldName, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+			final List<SpecialChest> chests = new ArrayList<>();
+			this.forEachShard(worldName, minX >> 4, minZ >> 4, maxX >> 4, maxZ >> 4, shard -> shard.chests.forEachValue(chest -> {
+				if(chest.getX() >= minX && chest.getX() <= maxX && chest.getY() >= minY && chest.getY() <= maxY && chest.getZ() >= minZ && chest.getZ() <= maxZ) {
+					chests.add(chest);
+				}
+			}));
+			return chests;
+		}
+
+		//the chests whose block center is within the radius, closest first
+		public List<SpecialChest> withinRadius(String worldName, double x, double y, double z, double radius) {
+			final double radiusSquared = radius * radius;
+			final List<SpecialChest> chests = new ArrayList<>();
+			this.forEachShard(worldName, (int) Math.floor(x - radius) >> 4, (int) Math.floor(z - radius) >> 4, (int) Math.floor(x + radius) >> 4, (int) Math.floor(z + radius) >> 4, shard -> shard.chests.forEachValue(chest -> {
+				if(distanceSquared(chest, x, y, z) <= radiusSquared) {
+					chests.add(chest);
+				}
+			}));
+			chests.sort(Comparator.comparingDouble(chest -> distanceSquared(chest, x, y, z)));
+			return chests;
+		}
+
+		//up to count chests whose block center is within maxDistance, closest first
+		public List<SpecialChest> nearest(String worldName, double x, double y, double z, int count, double maxDistance) {
+			final LongObjectHashMap<ChunkShard> chunks = this.chunks(worldName);
+			if(chunks == null || count <= 0) {
+				return new ArrayList<>();
+			}
+			final double maxDistanceSquared = maxDistance * maxDistance;
+			//the farthest of the closest chests found so far comes first
+			final PriorityQueue<SpecialChest> closest = new PriorityQueue<>(count + 1, Comparator.comparingDouble((SpecialChest chest) -> distanceSquared(chest, x, y, z)).reversed());
+			final Consumer<ChunkShard> visitor = shard -> shard.chests.forEachValue(chest -> {
+				if(distanceSquared(chest, x, y, z) <= maxDistanceSquared) {
+					closest.add(chest);
+					if(closest.size() > count) {
+						closest.poll();
+					}
+				}
+			});
+			final int centerX = (int) Math.floor(x) >> 4;
+			final int centerZ = (int) Math.floor(z) >> 4;
+			final double maxRing = maxDistance / 16 + 1;
+			for(int ring = 0; ring <= maxRing; ring++) {
+				//every chunk of this ring is at least (ring - 1) * 16 blocks away horizontally
+				final double ringDistance = Math.max(0, ring - 1) * 16d;
+				if(closest.size() == count && ringDistance * ringDistance > distanceSquared(closest.peek(), x, y, z)) {
+					break;
+				}
+				//the next rings have more chunks than the world has chunks with chests
+				if((long) (2 * ring + 1) * (2 * ring + 1) > chunks.size()) {
+					closest.clear();
+					chunks.forEachValue(visitor);
+					break;
+				}
+				for(int chunkX = centerX - ring; chunkX <= centerX + ring; chunkX++) {
+					final boolean edge = chunkX == centerX - ring || chunkX == centerX + ring;
+					for(int chunkZ = centerZ - ring; chunkZ <= centerZ + ring; chunkZ += edge ? 1 : 2 * ring) {
+						final ChunkShard shard = chunks.get(chunkKey(chunkX, chunkZ));
+						if(shard != null) {
+							visitor.accept(shard);
+						}
+					}
+				}
+			}
+			final List<SpecialChest> chests = new ArrayList<>(closest);
+			chests.sort(Comparator.comparingDouble(chest -> distanceSquared(chest, x, y, z)));
+			return chests;
+		}
+
+		//visits the shards of the chunks in the range, or every shard of the world if that are fewer
+		private void forEachShard(String worldName, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ, Consumer<ChunkShard> action) {
+			final LongObjectHashMap<ChunkShard> chunks = this.chunks(worldName);
+			if(chunks == null) {
+				return;
+			}
+			if(((long) maxChunkX - minChunkX + 1) * ((long) maxChunkZ - minChunkZ + 1) > chunks.size()) {
+				chunks.forEachValue(action);
+				return;
+			}
+			for(int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+				for(int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+					final ChunkShard shard = chunks.get(chunkKey(chunkX, chunkZ));
+					if(shard != null) {
+						action.accept(shard);
+					}
+				}
+			}
+		}
+
+		public Set<String> getWorldNames() {
+			final Set<String> worldNames = new HashSet<>(this.chunksByWorld.keySet());
+			worldNames.addAll(this.dormantByWorld.keySet());
+			return Collections.unmodifiableSet(worldNames);
+		}
+
+		public boolean isDormant(String worldName) {
+			return this.dormantByWorld.containsKey(worldName);
+		}
+
+		//every chest, grouped by chunk, those of dormant worlds last
+		public List<SpecialChest> values() {
+			List<SpecialChest> values = this.values;
+			if(values == null) {
+				final List<SpecialChest> chests = new ArrayList<>(this.size);
+				this.chunksByWorld.values().forEach(chunks -> chunks.forEachValue(shard -> shard.chests.forEachValue(chests::add)));
+				this.dormantByWorld.values().forEach(dormant -> chests.addAll(Arrays.asList(dormant)));
+				this.values = values = Collections.unmodifiableList(chests);
+			}
+			return values;
+		}
+
+		public int size() {
+			return this.size;
+		}
+
+		public Set<String> getGroups() {
+			return Collections.unmodifiableSet(this.slotsByGroup.keySet());
+		}
+
+		//the chests matching the query, without looking at the other chests
+		public List<SpecialChest> select(GroupQuery query) {
+			final BitSet selected = new BitSet();
+			query.getIncluded().forEach(term -> selected.or(this.evaluate(term)));
+			query.getExcluded().forEach(term -> selected.andNot(this.evaluate(term)));
+			final List<SpecialChest> chests = new ArrayList<>(selected.cardinality());
+			for(int slot = selected.nextSetBit(0); slot >= 0; slot = selected.nextSetBit(slot + 1)) {
+				chests.add(this.chestsBySlot[slot]);
+			}
+			return chests;
+		}
+
+		//the slots of the chests in all of the groups. the result must not be changed
+		private BitSet evaluate(List<String> groups) {
+			BitSet slots = this.groupSlots(groups.get(0));
+			for(int i = 1; i < groups.size(); i++) {
+				if(i == 1) {
+					slots = (BitSet) slots.clone();
+				}
+				slots.and(this.groupSlots(groups.get(i)));
+			}
+			return slots;
+		}
+
+		private BitSet groupSlots(String group) {
+			if(group.equals(GroupQuery.ALL)) {
+				return this.slots;
+			}
+			final BitSet slots = this.slotsByGroup.get(group);
+			return slots == null ? new BitSet() : slots;
+		}
+	}
+
+	//a batch of changes. only valid inside update
+	public static final class Editor {
+		private final Map<String, LongObjectHashMap<ChunkShard>> chunksByWorld;
+		private final Snapshot base;
+		private final Map<String, SpecialChest[]> dormantByWorld;
+		//worlds that are dormant once the edit is done. edits of a dormant world index it until then
+		private final Set<String> sleeping;
+		private int size;
+		private SpecialChest[] chestsBySlot;
+		private Map<SpecialChest, Integer> slotsByChest;
+		private BitSet slots;
+		private final Map<String, BitSet> slotsByGroup;
+		//lowest slot that may be free
+		private int freeSlot;
+		//maps, shards, arrays and bitsets copied by this editor, which may be changed in place
+		private final Set<Object> owned = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		private Editor(Snapshot base) {
+			this.base = base;
+			this.chunksByWorld = new HashMap<>(base.chunksByWorld);
+			this.dormantByWorld = new HashMap<>(base.dormantByWorld);
+			this.sleeping = new HashSet<>(base.dormantByWorld.keySet());
+			this.size = base.size;
+			this.chestsBySlot = base.chestsBySlot;
+			this.slotsByChest = base.slotsByChest;
+			this.slots = base.slots;
+			this.slotsByGroup = new HashMap<>(base.slotsByGroup);
+		}
+
+		public SpecialChest get(String worldName, int x, int y, int z) {
+			//a world that is still dormant is unchanged since the base snapshot, which may have it indexed already
+			final LongObjectHashMap<ChunkShard> chunks = this.dormantByWorld.containsKey(worldName)
+					? this.base.chunks(worldName)
+					: this.chunksByWorld.get(worldName);
+			final ChunkShard shard = chunks == null ? null : chunks.get(chunkKey(x >> 4, z >> 4));
+			return shard == null ? null : shard.chests.get(blockKey(x, y, z));
+		}
+
+		private LongObjectHashMap<ChunkShard> ownedChunks(String worldName) {
+			final SpecialChest[] dormant = this.dormantByWorld.remove(worldName);
+			if(dormant != null) {
+				this.chunksByWorld.put(worldName, inflate(dormant));
+				this.owned.add(this.chunksByWorld.get(worldName));
+			}
+			LongObjectHashMap<ChunkShard> chunks = this.chunksByWorld.get(worldName);
+			if(chunks == null || !this.owned.contains(chunks)) {
+				chunks = chunks == null ? new LongObjectHashMap<>() : chunks.copy();
+				this.owned.add(chunks);
+				this.chunksByWorld.put(worldName, chunks);
+			}
+			return chunks;
+		}
+
+		private ChunkShard ownedShard(LongObjectHashMap<ChunkShard> chunks, long chunkKey) {
+			ChunkShard shard = chunks.get(chunkKey);
+			if(shard == null || !this.owned.contains(shard)) {
+				shard = shard == null ? new ChunkShard(new LongObjectHashMap<>(4)) : new ChunkShard(shard.chests.copy());
+				this.owned.add(shard);
+				chunks.put(chunkKey, shard);
+			}
+			return shard;
+		}
+
+		public SpecialChest add(SpecialChest chest) {
+			final LongObjectHashMap<ChunkShard> chunks = this.ownedChunks(chest.getWorldName());
+			final ChunkShard shard = this.ownedShard(chunks, chunkKey(chest.getX() >> 4, chest.getZ() >> 4));
+			final SpecialChest previous = shard.chests.put(blockKey(chest.getX(), chest.getY(), chest.getZ()), chest);
+			if(previous == null) {
+				this.size++;
+			} else {
+				this.unindex(previous);
+			}
+			this.index(chest);
+			return previous;
+		}
+
+		public SpecialChest addIfAbsent(SpecialChest chest) {
+			final SpecialChest current = this.get(chest.getWorldName(), chest.getX(), chest.getY(), chest.getZ());
+			return current != null ? current : this.add(chest);
+		}
+
+		public SpecialChest remove(SpecialChest chest) {
+			final String worldName = chest.getWorldName();
+			final long chunkKey = chunkKey(chest.getX() >> 4, chest.getZ() >> 4);
+			final long blockKey = blockKey(chest.getX(), chest.getY(), chest.getZ());
+			if(this.get(worldName, chest.getX(), chest.getY(), chest.getZ()) == null) {
+				return null;
+			}
+			final LongObjectHashMap<ChunkShard> chunks = this.ownedChunks(worldName);
+			final ChunkShard shard = this.ownedShard(chunks, chunkKey);
+			final SpecialChest previous = shard.chests.remove(blockKey);
+			this.size--;
+			this.unindex(previous);
+			//drop empty shards, so chunks without chests keep being rejected by the chunk probe
+			if(shard.chests.isEmpty()) {
+				chunks.remove(chunkKey);
+				if(chunks.isEmpty()) {
+					this.chunksByWorld.remove(worldName);
+				}
+			}
+			return previous;
+		}
+
+		public void sleep(String worldName) {
+			this.sleeping.add(worldName);
+		}
+
+		public void wake(String worldName) {
+			this.sleeping.remove(worldName);
+			if(this.dormantByWorld.containsKey(worldName)) {
+				this.ownedChunks(worldName);
+			}
+		}
+
+		private void index(SpecialChest chest) {
+			final BitSet slots = this.ownedSlots();
+			final int slot = slots.nextClearBit(this.freeSlot);
+			this.freeSlot = slot + 1;
+			slots.set(slot);
+			if(slot >= this.chestsBySlot.length || !this.owned.contains(this.chestsBySlot)) {
+				this.chestsBySlot = Arrays.copyOf(this.chestsBySlot, slot < this.chestsBySlot.length ? this.chestsBySlot.length : Math.max(16, this.chestsBySlot.length * 2));
+				this.owned.add(this.chestsBySlot);
+			}
+			this.chestsBySlot[slot] = chest;
+			this.ownedSlotsByChest().put(chest, slot);
+			for(String group : chest.getGroups()) {
+				BitSet groupSlots = this.slotsByGroup.get(group);
+				if(groupSlots == null || !this.owned.contains(groupSlots)) {
+					groupSlots = groupSlots == null ? new BitSet() : (BitSet) groupSlots.clone();
+					this.owned.add(groupSlots);
+					this.slotsByGroup.put(group, groupSlots);
+				}
+				groupSlots.set(slot);
+			}
+		}
+
+		private void unindex(SpecialChest chest) {
+			final int slot = this.ownedSlotsByChest().remove(chest);
+			this.ownedSlots().clear(slot);
+			this.freeSlot = Math.min(this.freeSlot, slot);
+			if(!this.owned.contains(this.chestsBySlot)) {
+				this.chestsBySlot = this.chestsBySlot.clone();
+				this.owned.add(this.chestsBySlot);
+			}
+			this.chestsBySlot[slot] = null;
+			for(String group : chest.getGroups()) {
+				BitSet groupSlots = this.slotsByGroup.get(group);
+				if(!this.owned.contains(groupSlots)) {
+					groupSlots = (BitSet) groupSlots.clone();
+					this.owned.add(groupSlots);
+					this.slotsByGroup.put(group, groupSlots);
+				}
+				groupSlots.clear(slot);
+				if(groupSlots.isEmpty()) {
+					this.slotsByGroup.remove(group);
+				}
+			}
+		}
+
+		private Map<SpecialChest, Integer> ownedSlotsByChest() {
+			if(!this.owned.contains(this.slotsByChest)) {
+				this.slotsByChest = new IdentityHashMap<>(this.slotsByChest);
+				this.owned.add(this.slotsByChest);
+			}
+			return this.slotsByChest;
+		}
+
+		private BitSet ownedSlots() {
+			if(!this.owned.contains(this.slots)) {
+				this.slots = (BitSet) this.slots.clone();
+				this.owned.add(this.slots);
+			}
+			return this.slots;
+		}
+
+		private Snapshot build() {
+			for(String worldName : this.sleeping) {
+				final LongObjectHashMap<ChunkShard> chunks = this.chunksByWorld.remove(worldName);
+				if(chunks != null) {
+					this.dormantByWorld.put(worldName, deflate(chunks));
+				}
+			}
+			final Snapshot snapshot = new Snapshot(this.chunksByWorld, this.dormantByWorld, this.size, this.chestsBySlot, this.slotsByChest, this.slots, this.slotsByGroup);
+			//indexes of dormant worlds this edit did not touch stay valid
+			this.base.dormantChunks.forEach((worldName, chunks) -> {
+				if(this.dormantByWorld.get(worldName) == this.base.dormantByWorld.get(worldName)) {
+					snapshot.dormantChunks.put(worldName, chunks);
+				}
+			});
+			return snapshot;
+		}
+	}
+
+	private static LongObjectHashMap<ChunkShard> inflate(SpecialChest[] chests) {
+		final LongObjectHashMap<ChunkShard> chunks = new LongObjectHashMap<>();
+		for(SpecialChest chest : chests) {
+			final long chunkKey = chunkKey(chest.getX() >> 4, chest.getZ() >> 4);
+			ChunkShard shard = chunks.get(chunkKey);
+			if(shard == null) {
+				shard = new ChunkShard(new LongObjectHashMap<>(4));
+				chunks.put(chunkKey, shard);
+			}
+			shard.chests.put(blockKey(chest.getX(), chest.getY(), chest.getZ()), chest);
+		}
+		return chunks;
+	}
+
+	//also unbinds the chests from their world, so an unloaded world can be collected
+	private static SpecialChest[] deflate(LongObjectHashMap<ChunkShard> chunks) {
+		final List<SpecialChest> chests = new ArrayList<>();
+		chunks.forEachValue(shard -> shard.chests.forEachValue(chests::add));
+		chests.forEach(SpecialChest::unbind);
+		return chests.toArray(new SpecialChest[0]);
+	}
+
+	private static final class ChunkShard {
+		private final LongObjectHashMap<SpecialChest> chests;
+
+		private ChunkShard(LongObjectHashMap<SpecialChest> chests) {
+			this.chests = chests;
+		}
+	}
+}
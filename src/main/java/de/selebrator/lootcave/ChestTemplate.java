@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2019  Selebrator
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.selebrator.lootcave;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.type.Chest;
+import org.bukkit.loot.LootTable;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/*
+ * Everything about a chest except its position. Immutable and interned, so chests that only differ in their position share one template.
+ * The custom name and lock are translated to color codes once per template, the block data is created once per template.
+ */
+public final class ChestTemplate {
+
+	//weak, so templates no chest uses anymore can be collected
+	private static final Map<ChestTemplate, WeakReference<ChestTemplate>> INTERNED = Collections.synchronizedMap(new WeakHashMap<>());
+
+	private final LootTable lootTable;
+	private final double probability;
+	private final String customName;
+	private final String lock;
+	private final BlockFace facing;
+	private final boolean waterlogged;
+	private final Set<String> groups;
+	private final String title;
+	private final String lockKey;
+	private final int hash;
+	//created on first use, not while reading chests before the server is up
+	private volatile BlockData blockData;
+
+	private ChestTemplate(LootTable lootTable, double probability, String customName, String lock, BlockFace facing, boolean waterlogged, Set<String> groups) {
+		this.lootTable = lootTable;
+		this.probability = probability;
+		this.customName = customName;
+		this.lock = lock;
+		this.facing = facing;
+		this.waterlogged = waterlogged;
+		this.groups = groups.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(new HashSet<>(groups));
+		this.title = customName == null ? null : ChatColor.translateAlternateColorCodes('&', customName);
+		this.lockKey = lock == null ? null : ChatColor.translateAlternateColorCodes('&', lock);
+		this.hash = Objects.hash(lootTable, probability, customName, lock, facing, waterlogged, this.groups);
+	}
+
+	//the shared template with these properties
+	public static ChestTemplate of(LootTable lootTable, double probability, String customName, String lock, BlockFace facing, boolean waterlogged, Set<String> groups) {
+		final ChestTemplate template = new ChestTemplate(lootTable, probability, customName, lock, facing, waterlogged, groups);
+		synchronized(INTERNED) {
+			final WeakReference<ChestTemplate> interned = INTERNED.get(template);
+			final ChestTemplate existing = interned == null ? null : interned.get();
+			if(existing != null) {
+				return existing;
+			}
+			INTERNED.put(template, new WeakReference<>(template));
+			return template;
+		}
+	}
+
+	public boolean isInGroup(String group) {
+		return group.equals(GroupQuery.ALL) || this.groups.contains(group);
+	}
+
+	public LootTable getLootTable() {
+		return this.lootTable;
+	}
+
+	public double getProbability() {
+		return this.probability;
+	}
+
+	public String getCustomName() {
+		return this.customName;
+	}
+
+	//the custom name with color codes
+	public String getTitle() {
+		return this.title;
+	}
+
+	public String getLock() {
+		return this.lock;
+	}
+
+	//the lock with color codes
+	public String getLockKey() {
+		return this.lockKey;
+	}
+
+	public BlockFace getFacing() {
+		return this.facing;
+	}
+
+	public boolean isWaterlogged() {
+		return this.waterlogged;
+	}
+
+	public Set<String> getGroups() {
+		return this.groups;
+	}
+
+	//the block data of a placed chest. shared by every chest of this template, do not modify it
+	public BlockData getBlockData() {
+		BlockData blockData = this.blockData;
+		if(blockData == null) {
+			final Chest chest = (Chest) Bukkit.createBlockData(Material.CHEST);
+			chest.setType(Chest.Type.SINGLE);
+			if(this.facing != null) {
+				chest.setFacing(this.facing);
+			}
+			chest.setWaterlogged(this.waterlogged);
+			this.blockData = blockData = chest;
+		}
+		return blockData;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if(this == o) {
+			return true;
+		}
+		if(!(o instanceof ChestTemplate)) {
+			return false;
+		}
+		final ChestTemplate that = (ChestTemplate) o;
+		return this.hash == that.hash
+				&& Double.compare(this.probability, that.probability) == 0
+				&& this.waterlogged == that.waterlogged
+				&& Objects.equals(this.lootTable, that.lootTable)
+				&& Objects.equals(this.customName, that.customName)
+				&& Objects.equals(this.lock, that.lock)
+				&& this.facing == that.facing
+				&& this.groups.equals(that.groups);
+	}
+
+	@Override
+	public int hashCode() {
+		return this.hash;
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2019  Selebrator
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.selebrator.lootcave;
+
+import java.util.*;
+
+/*
+ * A selection of chests by group, e.g. "caves,mines&hard,!event".
+ * Comma separated terms are united, groups joined by & are intersected and terms starting with ! are excluded.
+ * The group all matches every chest.
+ */
+public final class GroupQuery {
+
+	public static final String ALL = "all";
+
+	private final List<List<String>> included;
+	private final List<List<String>> excluded;
+
+	private GroupQuery(List<List<String>> included, List<List<String>> excluded) {
+		this.included = included;
+		this.excluded = excluded;
+	}
+
+	public static GroupQuery of(String group) {
+		return new GroupQuery(Collections.singletonList(Collections.singletonList(group)), Collections.emptyList());
+	}
+
+	public static GroupQuery parse(String query) {
+		final List<List<String>> included = new ArrayList<>();
+		final List<List<String>> excluded = new ArrayList<>();
+		for(String term : query.split(",")) {
+			final boolean exclude = term.startsWith("!");
+			final List<String> groups = new ArrayList<>();
+			for(String group : (exclude ? term.substring(1) : term).split("&")) {
+				if(!group.isEmpty()) {
+					groups.add(group);
+				}
+			}
+			if(!groups.isEmpty()) {
+				(exclude ? excluded : included).add(groups);
+			}
+		}
+		return new GroupQuery(included, excluded);
+	}
+
+	List<List<String>> getIncluded() {
+		return this.included;
+	}
+
+	List<List<String>> getExcluded() {
+		return this.excluded;
+	}
+
+	public boolean matches(SpecialChest chest) {
+		return this.included.stream().anyMatch(term -> term.stream().allMatch(chest::isInGroup))
+				&& this.excluded.stream().noneMatch(term -> term.stream().allMatch(chest::isInGroup));
+	}
+}
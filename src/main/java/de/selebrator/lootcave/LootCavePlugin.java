@@ -17,48 +17,119 @@
 
 package de.selebrator.lootcave;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 import de.selebrator.lootcave.command.LootCaveCommand;
 import de.selebrator.lootcave.listener.LootCaveChestListener;
+import de.selebrator.lootcave.listener.PendingPlacementListener;
+import de.selebrator.lootcave.listener.PlayerLootListener;
+import de.selebrator.lootcave.listener.WorldListener;
+import de.selebrator.lootcave.loot.LootPreroller;
+import de.selebrator.lootcave.metrics.Metrics;
+import de.selebrator.lootcave.metrics.MetricsExporter;
+import de.selebrator.lootcave.placement.PendingPlacements;
+import de.selebrator.lootcave.placement.PlacementScheduler;
+import de.selebrator.lootcave.placement.RespawnScheduler;
+import de.selebrator.lootcave.storage.ChestStore;
+import de.selebrator.lootcave.storage.PlayerLootStore;
+import de.selebrator.lootcave.storage.StorageFormat;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
-import org.bukkit.Location;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.event.Listener;
+import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.plugin.java.JavaPluginLoader;
 
-import java.io.*;
-import java.nio.file.Files;
+import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.stream.Collector;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 public class LootCavePlugin extends JavaPlugin implements Listener {
 
-	private static final Collector<SpecialChest, HashMap<Location, SpecialChest>, HashMap<Location, SpecialChest>> IDENTIFY_BY_LOCATION_COLLECTOR = Collector.of(
-			HashMap::new,
-			(chestsByLocation, nextChest) -> chestsByLocation.putIfAbsent(nextChest.getLocation(), nextChest),
-			(a, b) -> a
-	);
-	private static final Gson GSON = new GsonBuilder()
-			.setPrettyPrinting()
-			.registerTypeAdapter(SpecialChest.class, new SpecialChest.Adapter())
-			.create();
-	public Map<Location, SpecialChest> chestsByLocation = new HashMap<>();
+	private final ChestRegistry chestRegistry = new ChestRegistry();
+	public final Metrics metrics = new Metrics();
 	public boolean blockEmptyChests;
-	private Path chestsPath;
+	public PlayerLootStore playerLoot;
+	public PlacementScheduler placement;
+	public PendingPlacements pendingPlacements;
+	private RespawnScheduler respawn;
+	private LootPreroller preroller;
+	private ChestStore chestStore;
+	private MetricsExporter metricsExporter;
+
+	public LootCavePlugin() {
+	}
+
+	//the server always uses the public constructor. JavaPlugin rejects it unless the plugin class loader loaded the class,
+	//so the benchmarks in src/jmh, which run without a server, subclass the plugin and pass what the loader would set up
+	protected LootCavePlugin(JavaPluginLoader loader, PluginDescriptionFile description, File dataFolder, File file) {
+		super(loader, description, dataFolder, file);
+	}
 
 	@Override
 	public void onEnable() {
 		this.loadConfig();
+		this.chestStore = new ChestStore(this, this.metrics, this.getDataFolder().toPath(), this.readStorageFormat(), this.chestRegistry::values);
+		this.playerLoot = new PlayerLootStore(this, this.metrics, this.getDataFolder().toPath().resolve("loot"));
+		try {
+			this.playerLoot.load();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+		this.placement = new PlacementScheduler(this, this.metrics);
+		this.pendingPlacements = new PendingPlacements(this, this.chestRegistry, this.playerLoot, this.getDataFolder().toPath().resolve("pending.yml"));
+		this.respawn = new RespawnScheduler(this, this.chestRegistry, this.playerLoot, this.placement, this.pendingPlacements, this.getDataFolder().toPath().resolve("respawn.yml"));
+		try {
+			this.respawn.load();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+		this.metricsExporter = new MetricsExporter(this, this.metrics);
+		this.registerGauges();
 		this.loadChests();
+		try {
+			this.pendingPlacements.load();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
 		Bukkit.getPluginManager().registerEvents(new LootCaveChestListener(this), this);
+		Bukkit.getPluginManager().registerEvents(new PlayerLootListener(this.playerLoot), this);
+		Bukkit.getPluginManager().registerEvents(new PendingPlacementListener(this.pendingPlacements), this);
+		Bukkit.getPluginManager().registerEvents(new WorldListener(this), this);
 		Bukkit.getPluginCommand("lootcave").setExecutor(new LootCaveCommand(this));
 	}
 
+	@Override
+	public void onDisable() {
+		if(this.metricsExporter != null) {
+			this.metricsExporter.close();
+		}
+		if(this.respawn != null) {
+			this.respawn.close();
+		}
+		if(this.placement != null) {
+			this.placement.close();
+		}
+		if(this.pendingPlacements != null) {
+			try {
+				this.pendingPlacements.save();
+			} catch(IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if(this.preroller != null) {
+			this.preroller.close();
+		}
+		if(this.playerLoot != null) {
+			this.playerLoot.close();
+		}
+		if(this.chestStore != null) {
+			this.chestStore.close();
+		}
+	}
+
 	public void loadConfig() {
 		this.saveDefaultConfig();
 		this.reloadConfig();
@@ -66,33 +137,162 @@ public class LootCavePlugin extends JavaPlugin implements Listener {
 
 	public void loadChests() {
 		this.blockEmptyChests = this.getConfig().getBoolean("block_empty_chest");
-		this.chestsPath = this.getDataFolder().toPath().resolve("chests.json");
-		if(Files.notExists(this.chestsPath)) {
-			try(InputStream defaultContent = new ByteArrayInputStream("[]".getBytes())) {
-				Files.copy(defaultContent, this.chestsPath);
-			} catch(IOException e) {
-				e.printStackTrace();
-			}
-		}
+		this.chestStore.setSaveDelay(this.getConfig().getLong("save_delay_ticks"));
+		this.chestStore.setCompactionThreshold(this.getConfig().getLong("journal_compaction_bytes"));
+		this.playerLoot.configureCache(
+				this.getConfig().getInt("loot_storage.cache.max_entries"),
+				this.getConfig().getLong("loot_storage.cache.expire_after_access_seconds"),
+				this.getConfig().getBoolean("loot_storage.cache.evict_on_quit"),
+				this.readEvictionPolicies()
+		);
+		this.playerLoot.configureModes(this.readLootModes(), this.getConfig().getBoolean("loot_storage.seeded"));
+		this.playerLoot.start(this.getConfig().getLong("loot_storage.flush_interval_ticks"));
+		this.placement.configure(this.getConfig().getLong("placement.budget_millis"), this.getConfig().getBoolean("placement.load_chunks"));
 		try {
+			this.chestStore.createIfMissing();
 			this.readChestsFile();
 		} catch(IOException e) {
 			e.printStackTrace();
 		}
+		this.loadPreroller();
+		this.respawn.start(this.readRespawnGroups());
+		final String metricsFile = this.getConfig().getString("metrics.file", "");
+		this.metricsExporter.start(
+				this.getConfig().getLong("metrics.interval_seconds") * 20,
+				metricsFile.isEmpty() ? null : this.getDataFolder().toPath().resolve(metricsFile),
+				this.getConfig().getInt("metrics.http_port")
+		);
 	}
 
-	public void readChestsFile() throws IOException {
-		try(BufferedReader bufferedReader = Files.newBufferedReader(this.chestsPath)) {
-			List<SpecialChest> chests = GSON.fromJson(bufferedReader, new TypeToken<List<SpecialChest>>() {
-			}.getType());
-			this.chestsByLocation = chests.stream().collect(IDENTIFY_BY_LOCATION_COLLECTOR);
+	private void registerGauges() {
+		this.metrics.gauge("lootcave_chests", "Registered chests", this.chestRegistry::size);
+		this.metrics.gauge("lootcave_player_loot_players", "Players with loaded loot", this.playerLoot::getPlayerCount);
+		this.metrics.gauge("lootcave_player_loot_entries", "Loaded per player chest inventories", this.playerLoot::getEntryCount);
+		this.metrics.gauge("lootcave_player_loot_heap_bytes", "Rough estimate of the heap used by loaded player loot", this.playerLoot::estimateHeapBytes);
+		this.metrics.gauge("lootcave_placement_jobs", "Queued placement jobs", this.placement::getQueuedJobs);
+		this.metrics.gauge("lootcave_pending_placements", "Chests waiting for their chunk to load", this.pendingPlacements::size);
+	}
+
+	private void loadPreroller() {
+		if(this.preroller != null) {
+			this.preroller.close();
+			this.preroller = null;
+		}
+		if(this.getConfig().getBoolean("preroll.enabled")) {
+			this.preroller = new LootPreroller(this, this.metrics, this.getConfig().getInt("preroll.buffer_size"), this.getConfig().getInt("preroll.threads"));
+			this.preroller.warm(this.chestRegistry.values());
 		}
+		this.playerLoot.setPreroller(this.preroller);
 	}
 
-	public void writeChestsFile() throws IOException {
-		try(BufferedWriter bufferedWriter = Files.newBufferedWriter(this.chestsPath)) {
-			GSON.toJson(this.chestsByLocation.values(), bufferedWriter);
+	private List<RespawnScheduler.Group> readRespawnGroups() {
+		final List<RespawnScheduler.Group> groups = new ArrayList<>();
+		final ConfigurationSection section = this.getConfig().getConfigurationSection("respawn");
+		if(section != null) {
+			for(String group : section.getKeys(false)) {
+				final ConfigurationSection groupSection = section.getConfigurationSection(group);
+				if(groupSection == null || groupSection.getLong("period_seconds") <= 0) {
+					this.getLogger().warning("Missing period_seconds for respawn of group " + group + ", not respawning it");
+					continue;
+				}
+				groups.add(new RespawnScheduler.Group(
+						group,
+						groupSection.getLong("period_seconds") * 20,
+						groupSection.getLong("jitter_seconds") * 20,
+						groupSection.getBoolean("force")
+				));
+			}
 		}
+		return groups;
+	}
+
+	private Map<String, PlayerLootStore.EvictionPolicy> readEvictionPolicies() {
+		final Map<String, PlayerLootStore.EvictionPolicy> policyByGroup = new HashMap<>();
+		final ConfigurationSection section = this.getConfig().getConfigurationSection("loot_storage.cache.policies");
+		if(section != null) {
+			for(String group : section.getKeys(false)) {
+				try {
+					policyByGroup.put(group, PlayerLootStore.EvictionPolicy.valueOf(section.getString(group).toUpperCase(Locale.ROOT)));
+				} catch(IllegalArgumentException | NullPointerException e) {
+					this.getLogger().warning("Unknown eviction policy for group " + group + ", using persist");
+				}
+			}
+		}
+		return policyByGroup;
+	}
+
+	private Map<String, PlayerLootStore.LootMode> readLootModes() {
+		final Map<String, PlayerLootStore.LootMode> modeByGroup = new HashMap<>();
+		final ConfigurationSection section = this.getConfig().getConfigurationSection("loot_storage.modes");
+		if(section != null) {
+			for(String group : section.getKeys(false)) {
+				try {
+					modeByGroup.put(group, PlayerLootStore.LootMode.valueOf(section.getString(group).toUpperCase(Locale.ROOT)));
+				} catch(IllegalArgumentException | NullPointerException e) {
+					this.getLogger().warning("Unknown loot mode for group " + group + ", using per_player");
+				}
+			}
+		}
+		return modeByGroup;
+	}
+
+	//the format is only read on startup, /lootcave import converts between formats at runtime
+	private StorageFormat readStorageFormat() {
+		final String formatName = this.getConfig().getString("storage_format", StorageFormat.JSON.name());
+		try {
+			return StorageFormat.valueOf(formatName.toUpperCase(Locale.ROOT));
+		} catch(IllegalArgumentException e) {
+			this.getLogger().warning("Unknown storage_format \"" + formatName + "\", using json");
+			return StorageFormat.JSON;
+		}
+	}
+
+	public void readChestsFile() throws IOException {
+		this.chestRegistry.replaceAll(this.chestStore.read());
+		this.sleepUnloadedWorlds();
+	}
+
+	//chests of worlds that are not loaded are indexed once their world loads
+	private void sleepUnloadedWorlds() {
+		final List<String> unloaded = this.chestRegistry.snapshot().getWorldNames().stream()
+				.filter(worldName -> Bukkit.getWorld(worldName) == null)
+				.collect(Collectors.toList());
+		this.chestRegistry.update(editor -> unloaded.forEach(editor::sleep));
+	}
+
+	//appends the change to the journal in the background. callback receives whether the write succeeded
+	public void saveChests(Collection<SpecialChest> chests, Consumer<Boolean> callback) {
+		this.chestStore.appendPut(chests, callback);
+	}
+
+	public void deleteChests(Collection<SpecialChest> chests, Consumer<Boolean> callback) {
+		this.chestStore.appendRemove(chests, callback);
+	}
+
+	public StorageFormat getStorageFormat() {
+		return this.chestStore.getFormat();
+	}
+
+	public Path getChestsPath(StorageFormat format) {
+		return this.chestStore.getPath(format);
+	}
+
+	//writes every chest to the save file of the given format
+	public void exportChests(StorageFormat format, Consumer<Boolean> callback) {
+		this.chestStore.export(format, callback);
+	}
+
+	//replaces every chest with the ones from the save file of the given format and saves them in the configured format
+	public int importChests(StorageFormat format, Consumer<Boolean> callback) throws IOException {
+		final List<SpecialChest> chests = this.chestStore.read(format);
+		this.chestRegistry.replaceAll(chests);
+		this.sleepUnloadedWorlds();
+		this.chestStore.save(callback);
+		return this.chestRegistry.size();
+	}
+
+	public ChestRegistry getChestRegistry() {
+		return this.chestRegistry;
 	}
 
 	public String message(String messagePath) {
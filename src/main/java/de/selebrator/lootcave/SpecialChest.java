@@ -17,9 +17,7 @@
 
 package de.selebrator.lootcave;
 
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.gson.JsonParseException;
 import com.google.gson.TypeAdapter;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
@@ -31,137 +29,207 @@ import org.bukkit.block.data.type.Chest;
 import org.bukkit.entity.HumanEntity;
 import org.bukkit.event.inventory.InventoryType;
 import org.bukkit.inventory.Inventory;
-import org.bukkit.inventory.InventoryView;
+import org.bukkit.inventory.ItemStack;
 import org.bukkit.loot.LootContext;
 import org.bukkit.loot.LootTable;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.function.Function;
 
 public class SpecialChest {
-	private final Location location;
-	private final LootTable lootTable;
-	private final double probability;
-	private final String customName;
-	private final String lock;
-	private final BlockFace facing;
-	private final boolean waterlogged;
-	private Set<String> groups;
-
-	private Map<UUID, Inventory> inventoryByPlayerUuid = new HashMap<>();
-
-	private SpecialChest(Location location, LootTable lootTable, double probability, String customName, String lock, BlockFace facing, boolean waterlogged, Set<String> groups) {
-		this.location = location;
-		this.lootTable = lootTable;
-		this.probability = probability;
-		this.customName = customName;
-		this.lock = lock;
-		this.facing = facing;
-		this.waterlogged = waterlogged;
-		this.groups = groups;
+	private final String worldName;
+	private final int x;
+	private final int y;
+	private final int z;
+	private Location location;
+	private final ChestTemplate template;
+	private String id;
+
+	private SpecialChest(String worldName, int x, int y, int z, World world, ChestTemplate template) {
+		this.worldName = worldName;
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.location = world == null ? null : new Location(world, x, y, z);
+		this.template = template;
 	}
 
-	public InventoryView open(HumanEntity player, Random random) {
-		return player.openInventory(this.inventoryByPlayerUuid.computeIfAbsent(player.getUniqueId(), uuid -> {
-			final Inventory inventory;
-			if(this.customName != null) {
-				inventory = Bukkit.createInventory(player, InventoryType.CHEST, ChatColor.translateAlternateColorCodes('&', this.customName));
-			} else {
-				inventory = Bukkit.createInventory(player, InventoryType.CHEST);
-			}
-			final LootContext lootContext = new LootContext.Builder(this.location)
-					.luck((float) player.getAttribute(Attribute.GENERIC_LUCK).getValue())
-					.build();
-			this.lootTable.fillInventory(inventory, random, lootContext);
-			return inventory;
-		}));
+	public static String id(String worldName, int x, int y, int z) {
+		return worldName + ':' + x + ',' + y + ',' + z;
 	}
 
-	public void resetInventory() {
-		this.inventoryByPlayerUuid = new HashMap<>();
+	//an empty inventory titled like this chest
+	public Inventory createInventory(HumanEntity player) {
+		if(this.template.getTitle() != null) {
+			return Bukkit.createInventory(player, InventoryType.CHEST, this.template.getTitle());
+		} else {
+			return Bukkit.createInventory(player, InventoryType.CHEST);
+		}
+	}
+
+	//an inventory titled like this chest with the given contents, e.g. loot rolled ahead of time
+	public Inventory createInventory(HumanEntity player, ItemStack[] contents) {
+		final Inventory inventory = this.createInventory(player);
+		inventory.setContents(contents);
+		return inventory;
+	}
+
+	//a new inventory filled with freshly rolled loot, using the player's luck
+	public Inventory generateInventory(HumanEntity player, Random random) {
+		return this.generateInventory(player, random, (float) player.getAttribute(Attribute.GENERIC_LUCK).getValue());
+	}
+
+	public Inventory generateInventory(HumanEntity player, Random random, float luck) {
+		final Inventory inventory = this.createInventory(player);
+		final LootContext lootContext = new LootContext.Builder(this.getLocation())
+				.luck(luck)
+				.build();
+		this.template.getLootTable().fillInventory(inventory, random, lootContext);
+		return inventory;
 	}
 
 	public boolean place(boolean force, Random random) {
-		return this.probability > random.nextDouble() && this.place(force);
+		return this.template.getProbability() > random.nextDouble() && this.place(force);
 	}
 
 	//return true if chest was placed
 	public boolean place(boolean force) {
-		final Block block = this.location.getBlock();
-		if(!force && !block.isEmpty()) {
+		final Location location = this.getLocation();
+		if(location.getWorld() == null) {
 			return false;
 		}
-		block.setType(Material.CHEST);
-		final org.bukkit.block.Chest state = (org.bukkit.block.Chest) block.getState();
-		final org.bukkit.block.data.type.Chest data = (org.bukkit.block.data.type.Chest) state.getBlockData();
-		data.setType(Chest.Type.SINGLE);
-		if(this.customName != null) {
-			state.setCustomName(ChatColor.translateAlternateColorCodes('&', this.customName));
+		final Block block = location.getBlock();
+		if(!force && !block.isEmpty()) {
+			return false;
 		}
-		if(this.lock != null) {
-			state.setLock(ChatColor.translateAlternateColorCodes('&', this.lock));
+		//a single block change without physics, so no neighbours like water or redstone are updated
+		block.setBlockData(this.template.getBlockData(), false);
+		if(this.template.getTitle() != null || this.template.getLockKey() != null) {
+			final org.bukkit.block.Chest state = (org.bukkit.block.Chest) block.getState();
+			if(this.template.getTitle() != null) {
+				state.setCustomName(this.template.getTitle());
+			}
+			if(this.template.getLockKey() != null) {
+				state.setLock(this.template.getLockKey());
+			}
+			state.update(true, false);
 		}
-		if(this.facing != null) {
-			data.setFacing(this.facing);
+		return true;
+	}
+
+	//replaces the contents of the chest block with freshly rolled loot. return false if there is no chest block
+	public boolean fillBlockInventory(Random random) {
+		if(!this.isPlaced()) {
+			return false;
 		}
-		data.setWaterlogged(this.waterlogged);
-		state.setBlockData(data);
-		state.update(force);
-		this.resetInventory();
+		final Inventory inventory = ((org.bukkit.block.Chest) this.getLocation().getBlock().getState()).getBlockInventory();
+		inventory.clear();
+		this.template.getLootTable().fillInventory(inventory, random, new LootContext.Builder(this.getLocation()).build());
 		return true;
 	}
 
 	public boolean remove() {
-		final Block block = this.location.getBlock();
+		final Location location = this.getLocation();
+		if(location.getWorld() == null) {
+			return false;
+		}
+		final Block block = location.getBlock();
 		if(block.getType() == Material.CHEST) {
-			block.setType(((Chest) block.getBlockData()).isWaterlogged() ? Material.WATER : Material.AIR);
+			//the loot of a shared chest would be dropped otherwise
+			((org.bukkit.block.Chest) block.getState()).getBlockInventory().clear();
+			block.setType(((Chest) block.getBlockData()).isWaterlogged() ? Material.WATER : Material.AIR, false);
 			return true;
 		}
 		return false;
 	}
 
+	//return true if there is a chest block at the chest's position right now
+	public boolean isPlaced() {
+		final Location location = this.getLocation();
+		return location.getWorld() != null && location.getBlock().getType() == Material.CHEST;
+	}
+
 	public boolean isInGroup(String group) {
-		return group.equals("all") || this.groups.contains(group);
+		return this.template.isInGroup(group);
 	}
 
 	public boolean isInAnyGroup(Collection<String> groups) {
-		return groups.contains("all") || this.groups.stream().anyMatch(groups::contains);
+		return groups.contains(GroupQuery.ALL) || this.template.getGroups().stream().anyMatch(groups::contains);
+	}
+
+	//identifies the chest by its position, e.g. in player loot files
+	public String getId() {
+		if(this.id == null) {
+			this.id = id(this.worldName, this.x, this.y, this.z);
+		}
+		return this.id;
+	}
+
+	public String getWorldName() {
+		return this.worldName;
 	}
 
-	public Inventory getInventory(UUID uuid) {
-		return this.inventoryByPlayerUuid.get(uuid);
+	public int getX() {
+		return this.x;
 	}
 
-	public Inventory getInventory(OfflinePlayer player) {
-		return this.getInventory(player.getUniqueId());
+	public int getY() {
+		return this.y;
 	}
 
+	public int getZ() {
+		return this.z;
+	}
+
+	//the world is bound lazily, the location has no world as long as the chest's world is not loaded
 	public Location getLocation() {
-		return this.location;
+		Location location = this.location;
+		if(location == null) {
+			final World world = Bukkit.getWorld(this.worldName);
+			location = new Location(world, this.x, this.y, this.z);
+			if(world != null) {
+				this.location = location;
+			}
+		}
+		return location;
+	}
+
+	//drops the bound world. the world is bound again on the next access once it is loaded
+	void unbind() {
+		this.location = null;
+	}
+
+	public ChestTemplate getTemplate() {
+		return this.template;
 	}
 
 	public LootTable getLootTable() {
-		return this.lootTable;
+		return this.template.getLootTable();
 	}
 
 	public double getProbability() {
-		return this.probability;
+		return this.template.getProbability();
 	}
 
 	public String getCustomName() {
-		return this.customName;
+		return this.template.getCustomName();
 	}
 
 	public String getLock() {
-		return this.lock;
+		return this.template.getLock();
 	}
 
 	public BlockFace getFacing() {
-		return this.facing;
+		return this.template.getFacing();
 	}
 
 	public boolean isWaterlogged() {
-		return this.waterlogged;
+		return this.template.isWaterlogged();
+	}
+
+	public Set<String> getGroups() {
+		return this.template.getGroups();
 	}
 
 	public static class Adapter extends TypeAdapter<SpecialChest> {
@@ -171,28 +239,29 @@ public class SpecialChest {
 			out.beginObject();
 			out.name("location")
 					.beginObject()
-					.name("world").value(value.location.getWorld().getName())
-					.name("x").value(value.location.getBlockX())
-					.name("y").value(value.location.getBlockY())
-					.name("z").value(value.location.getBlockZ())
+					.name("world").value(value.worldName)
+					.name("x").value(value.x)
+					.name("y").value(value.y)
+					.name("z").value(value.z)
 					.endObject();
-			out.name("loot_table").value(value.lootTable.getKey().toString());
-			out.name("probability").value(value.probability);
-			if(value.customName != null) {
-				out.name("custom_name").value(value.customName);
+			final ChestTemplate template = value.template;
+			out.name("loot_table").value(template.getLootTable().getKey().toString());
+			out.name("probability").value(template.getProbability());
+			if(template.getCustomName() != null) {
+				out.name("custom_name").value(template.getCustomName());
 			}
-			if(value.lock != null) {
-				out.name("lock").value(value.lock);
+			if(template.getLock() != null) {
+				out.name("lock").value(template.getLock());
 			}
-			if(value.facing != null) {
-				out.name("facing").value(value.facing.toString());
+			if(template.getFacing() != null) {
+				out.name("facing").value(template.getFacing().toString());
 			}
-			if(value.waterlogged) {
+			if(template.isWaterlogged()) {
 				out.name("waterlogged").value(true);
 			}
-			if(!value.groups.isEmpty()) {
+			if(!template.getGroups().isEmpty()) {
 				out.name("groups").beginArray();
-				for(String group : value.groups) {
+				for(String group : template.getGroups()) {
 					out.value(group);
 				}
 				out.endArray();
@@ -201,48 +270,92 @@ public class SpecialChest {
 		}
 
 		@Override
-		public SpecialChest read(JsonReader in) {
-			JsonElement parsedJson = new JsonParser().parse(in);
-			final JsonObject jObject = parsedJson.getAsJsonObject();
-
-			final JsonObject jLocation = jObject.getAsJsonObject("location");
-			final String worldName = jLocation.getAsJsonPrimitive("world").getAsString();
-			final World world = Bukkit.getWorld(worldName);
-			final double x = jLocation.getAsJsonPrimitive("x").getAsDouble();
-			final double y = jLocation.getAsJsonPrimitive("y").getAsDouble();
-			final double z = jLocation.getAsJsonPrimitive("z").getAsDouble();
-			final Location location = new Location(world, x, y, z);
-
-			final SpecialChest.Builder chest = new SpecialChest.Builder(location, jObject.getAsJsonPrimitive("loot_table").getAsString());
-
-			if(jObject.has("probability")) {
-				chest.setProbability(jObject.getAsJsonPrimitive("probability").getAsDouble());
-			}
-			if(jObject.has("custom_name")) {
-				chest.setCustomName(jObject.getAsJsonPrimitive("custom_name").getAsString());
-			}
-			if(jObject.has("lock")) {
-				chest.setLock(jObject.getAsJsonPrimitive("lock").getAsString());
-			}
-			if(jObject.has("facing")) {
-				final String directionName = jObject.getAsJsonPrimitive("facing").getAsString();
-				chest.setFacing(BlockFace.valueOf(directionName.toUpperCase(Locale.ROOT)));
-			}
-			if(jObject.has("waterlogged")) {
-				chest.setWaterlogged(jObject.getAsJsonPrimitive("waterlogged").getAsBoolean());
-			}
-			if(jObject.has("groups")) {
-				jObject.getAsJsonArray("groups").forEach(jsonElement -> chest.addGroup(jsonElement.getAsString()));
+		public SpecialChest read(JsonReader in) throws IOException {
+			return readBuilder(in).build();
+		}
+
+		//reads the fields token by token without building a json tree. does not touch the server, so it is safe to call from any thread
+		public static Builder readBuilder(JsonReader in) throws IOException {
+			String worldName = null;
+			int x = 0;
+			int y = 0;
+			int z = 0;
+			String lootTable = null;
+			final Builder chest = new Builder();
+
+			in.beginObject();
+			while(in.hasNext()) {
+				switch(in.nextName()) {
+					case "location":
+						in.beginObject();
+						while(in.hasNext()) {
+							switch(in.nextName()) {
+								case "world":
+									worldName = in.nextString();
+									break;
+								case "x":
+									x = (int) Math.floor(in.nextDouble());
+									break;
+								case "y":
+									y = (int) Math.floor(in.nextDouble());
+									break;
+								case "z":
+									z = (int) Math.floor(in.nextDouble());
+									break;
+								default:
+									in.skipValue();
+							}
+						}
+						in.endObject();
+						break;
+					case "loot_table":
+						lootTable = in.nextString();
+						break;
+					case "probability":
+						chest.setProbability(in.nextDouble());
+						break;
+					case "custom_name":
+						chest.setCustomName(in.nextString());
+						break;
+					case "lock":
+						chest.setLock(in.nextString());
+						break;
+					case "facing":
+						chest.setFacing(BlockFace.valueOf(in.nextString().toUpperCase(Locale.ROOT)));
+						break;
+					case "waterlogged":
+						chest.setWaterlogged(in.nextBoolean());
+						break;
+					case "groups":
+						in.beginArray();
+						while(in.hasNext()) {
+							chest.addGroup(in.nextString());
+						}
+						in.endArray();
+						break;
+					default:
+						in.skipValue();
+				}
 			}
+			in.endObject();
 
-			return chest.build();
+			if(worldName == null || lootTable == null) {
+				throw new JsonParseException("Chest at " + in.getPath() + " is missing its world or loot table");
+			}
+			chest.setPosition(worldName, x, y, z);
+			chest.setLootTable(lootTable);
+			return chest;
 		}
 	}
 
 	@SuppressWarnings("WeakerAccess")
 	public static class Builder {
-		private Location location;
+		private String worldName;
+		private int x;
+		private int y;
+		private int z;
 		private LootTable lootTable;
+		private String lootTableKey;
 		private double probability = 1.0d;
 		private String customName = null;
 		private String lock = null;
@@ -250,47 +363,86 @@ public class SpecialChest {
 		private boolean waterlogged = false;
 		private Set<String> groups = new HashSet<>();
 
+		private Builder() {
+		}
+
 		public Builder(Location location, LootTable lootTable) {
-			this.location = location;
+			this.setLocation(location);
 			this.lootTable = lootTable;
 		}
 
 		public Builder(Location location, String lootTable) {
-			this.location = location;
+			this.setLocation(location);
 			this.setLootTable(lootTable);
 		}
 
+		public Builder(String worldName, int x, int y, int z, LootTable lootTable) {
+			this.setPosition(worldName, x, y, z);
+			this.lootTable = lootTable;
+		}
+
 		public Builder(SpecialChest original) {
-			this.location = original.location.clone();
-			this.lootTable = original.lootTable;
-			this.probability = original.probability;
-			this.customName = original.customName;
-			this.lock = original.lock;
-			this.facing = original.facing;
-			this.waterlogged = original.waterlogged;
-			this.groups = original.groups;
+			this.setPosition(original.worldName, original.x, original.y, original.z);
+			this.setTemplate(original.template);
+		}
+
+		public static LootTable lookupLootTable(String namespacedLootTable) {
+			final String[] lootTableNameParts = namespacedLootTable.split(":", 2);
+			//noinspection deprecation
+			return Bukkit.getLootTable(new NamespacedKey(lootTableNameParts[0], lootTableNameParts[1]));
+		}
+
+		public String getWorldName() {
+			return this.worldName;
+		}
+
+		public String getId() {
+			return id(this.worldName, this.x, this.y, this.z);
 		}
 
 		public Location getLocation() {
-			return this.location;
+			return new Location(Bukkit.getWorld(this.worldName), this.x, this.y, this.z);
 		}
 
 		public void setLocation(Location location) {
-			this.location = location;
+			this.setPosition(location.getWorld().getName(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
+		}
+
+		public void setPosition(String worldName, int x, int y, int z) {
+			this.worldName = worldName;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+
+		//takes every property except the position from the template
+		public void setTemplate(ChestTemplate template) {
+			this.lootTable = template.getLootTable();
+			this.lootTableKey = null;
+			this.probability = template.getProbability();
+			this.customName = template.getCustomName();
+			this.lock = template.getLock();
+			this.facing = template.getFacing();
+			this.waterlogged = template.isWaterlogged();
+			this.groups = new HashSet<>(template.getGroups());
 		}
 
 		public LootTable getLootTable() {
+			if(this.lootTable == null && this.lootTableKey != null) {
+				this.lootTable = lookupLootTable(this.lootTableKey);
+			}
 			return this.lootTable;
 		}
 
 		public void setLootTable(LootTable lootTable) {
 			this.lootTable = lootTable;
+			this.lootTableKey = null;
 		}
 
+		//the loot table is looked up lazily, when it is needed
 		public void setLootTable(String namespacedLootTable) {
-			final String[] lootTableNameParts = namespacedLootTable.split(":", 2);
-			//noinspection deprecation
-			setLootTable(Bukkit.getLootTable(new NamespacedKey(lootTableNameParts[0], lootTableNameParts[1])));
+			this.lootTable = null;
+			this.lootTableKey = namespacedLootTable;
 		}
 
 		public double getProbability() {
@@ -350,15 +502,22 @@ public class SpecialChest {
 		}
 
 		public SpecialChest build() {
+			return this.build(Bukkit::getWorld, Builder::lookupLootTable);
+		}
+
+		//builds the chest with custom (e.g. caching) lookups for worlds and loot tables
+		public SpecialChest build(Function<String, World> worlds, Function<String, LootTable> lootTables) {
+			if(this.lootTable == null && this.lootTableKey != null) {
+				this.lootTable = lootTables.apply(this.lootTableKey);
+			}
+			final World world = worlds.apply(this.worldName);
 			return new SpecialChest(
-					this.location,
-					this.lootTable,
-					this.probability,
-					this.customName,
-					this.lock,
-					this.facing,
-					this.waterlogged,
-					this.groups
+					world == null ? this.worldName : world.getName(),
+					this.x,
+					this.y,
+					this.z,
+					world,
+					ChestTemplate.of(this.lootTable, this.probability, this.customName, this.lock, this.facing, this.waterlogged, this.groups)
 			);
 		}
 	}
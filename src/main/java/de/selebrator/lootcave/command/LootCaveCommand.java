@@ -17,18 +17,25 @@
 
 package de.selebrator.lootcave.command;
 
+import de.selebrator.lootcave.ChestRegistry;
+import de.selebrator.lootcave.GroupQuery;
 import de.selebrator.lootcave.LootCavePlugin;
 import de.selebrator.lootcave.SpecialChest;
+import de.selebrator.lootcave.metrics.Histogram;
+import de.selebrator.lootcave.metrics.Metrics;
+import de.selebrator.lootcave.storage.StorageFormat;
 import joptsimple.*;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
+import org.bukkit.loot.LootTable;
 
 import java.io.IOException;
 import java.util.*;
@@ -90,8 +97,12 @@ public class LootCaveCommand implements CommandExecutor {
 					Double.valueOf(args.get(2))
 			);
 		} else if(args.size() == 4) {
+			final World world = Bukkit.getWorld(args.get(3));
+			if(world == null) {
+				return null;
+			}
 			return new Location(
-					Bukkit.getWorld(args.get(3)),
+					world,
 					Double.valueOf(args.get(0)),
 					Double.valueOf(args.get(1)),
 					Double.valueOf(args.get(2))
@@ -147,6 +158,16 @@ public class LootCaveCommand implements CommandExecutor {
 					return onPlaceCommand(sender, betterSubArgs);
 				case "remove":
 					return onRemoveCommand(sender, betterSubArgs);
+				case "scan":
+					return onScanCommand(sender, betterSubArgs);
+				case "near":
+					return onNearCommand(sender, betterSubArgs);
+				case "stats":
+					return onStatsCommand(sender);
+				case "export":
+					return onExportCommand(sender, betterSubArgs);
+				case "import":
+					return onImportCommand(sender, betterSubArgs);
 				default:
 					return false;
 			}
@@ -225,18 +246,18 @@ public class LootCaveCommand implements CommandExecutor {
 			chest.addGroups(Arrays.asList(groups.value(options).split(",")));
 		}
 
-		boolean overwriting = this.plugin.chestsByLocation.containsKey(location);
-
 		SpecialChest build = chest.build();
-		this.plugin.chestsByLocation.put(build.getLocation(), build);
-
-		try {
-			this.plugin.writeChestsFile();
-		} catch(IOException e) {
-			e.printStackTrace();
-			sender.sendMessage(message("message.command.add.error_file_write"));
+		boolean overwriting = this.plugin.getChestRegistry().add(build) != null;
+		if(overwriting) {
+			this.plugin.playerLoot.reset(build);
 		}
 
+		this.plugin.saveChests(Collections.singleton(build), success -> {
+			if(!success) {
+				sender.sendMessage(message("message.command.add.error_file_write"));
+			}
+		});
+
 		String message = message("message.command.add.success_" + (overwriting ? "change" : "new"));
 		sendOrBroadcast(sender, message, options.has(broadcast));
 		return true;
@@ -244,6 +265,7 @@ public class LootCaveCommand implements CommandExecutor {
 
 	/*
 	 * [OPTION]... [(<x> <y> <z> [<world>])|<groups>]
+	 * groups are a group query like caves,mines&hard,!event
 	 *
 	 * --ignore-probability
 	 * make every chest spawn, no matter it's probability
@@ -252,6 +274,14 @@ public class LootCaveCommand implements CommandExecutor {
 	 * --force
 	 * make the chests replace the block where it wants to be
 	 *
+	 * -d
+	 * --deferred
+	 * place chests in unloaded chunks once their chunk loads
+	 *
+	 * -r <radius>
+	 * --radius=<radius>
+	 * the chests within radius blocks of you, only those of the groups if given
+	 *
 	 * -B
 	 * --broadcast
 	 */
@@ -260,42 +290,71 @@ public class LootCaveCommand implements CommandExecutor {
 		parser.posixlyCorrect(true);
 		OptionSpec<Void> ignoreProbability = parser.accepts("ignore-probability");
 		OptionSpec<Void> force = parser.acceptsAll(Arrays.asList("f", "force"));
+		OptionSpec<Void> deferred = parser.acceptsAll(Arrays.asList("d", "deferred"));
+		OptionSpec<Double> radius = parser.acceptsAll(Arrays.asList("r", "radius")).withRequiredArg().ofType(Double.class);
 		OptionSpec<Void> broadcast = parser.acceptsAll(Arrays.asList("B", "broadcast"));
 
 		OptionSet options = parser.parse(args);
 		@SuppressWarnings("unchecked") List<String> rest = (List<String>) options.nonOptionArguments();
 
-		Set<SpecialChest> chests;
-		if(rest.size() == 1) {
-			List<String> groups = Arrays.asList(rest.get(0).split(","));
-			chests = this.plugin.chestsByLocation.values().stream()
-					.filter(chest -> chest.isInAnyGroup(groups))
-					.collect(Collectors.toSet());
+		Collection<SpecialChest> chests;
+		if(options.has(radius)) {
+			if(!(sender instanceof Player) || rest.size() > 1) {
+				sender.sendMessage(message("message.command.place.error_location_missing"));
+				return false;
+			}
+			chests = this.selectNearby((Player) sender, radius.value(options), rest);
+		} else if(rest.size() == 1) {
+			chests = this.plugin.getChestRegistry().select(GroupQuery.parse(rest.get(0)));
 		} else {
 			Location location = getLocation(sender, rest);
 			if(location == null) {
 				sender.sendMessage(message("message.command.place.error_location_missing"));
 				return false;
 			}
-			if(!this.plugin.chestsByLocation.containsKey(location)) {
+			if(!this.plugin.getChestRegistry().contains(location)) {
 				sender.sendMessage(message("message.command.place.error_location_invalid"));
 				return true;
 			}
-			chests = Collections.singleton(this.plugin.chestsByLocation.get(location));
+			chests = Collections.singleton(this.plugin.getChestRegistry().get(location));
 		}
 
-		long placedChests = chests.stream()
-				.filter(specialChest -> options.has(ignoreProbability)
-						? specialChest.place(options.has(force))
-						: specialChest.place(options.has(force), ThreadLocalRandom.current()))
-				.count();
-		String message = message("message.command.place.success_" + (placedChests == 1 ? "single" : "multiple")).replace("%count%", String.valueOf(placedChests));
-		sendOrBroadcast(sender, message, options.has(broadcast));
+		//a chest placed now must not be placed again when its chunk loads
+		this.plugin.pendingPlacements.unmark(chests);
+		if(options.has(deferred)) {
+			Map<Boolean, List<SpecialChest>> chestsByLoaded = chests.stream()
+					.collect(Collectors.partitioningBy(LootCaveCommand::isChunkLoaded));
+			chestsByLoaded.get(false).forEach(specialChest -> this.plugin.pendingPlacements.mark(specialChest, options.has(force), options.has(ignoreProbability)));
+			int deferredChests = chestsByLoaded.get(false).size();
+			if(deferredChests > 0) {
+				sender.sendMessage(message("message.command.place.success_deferred").replace("%count%", String.valueOf(deferredChests)));
+			}
+			chests = chestsByLoaded.get(true);
+			if(chests.isEmpty() && deferredChests > 0) {
+				return true;
+			}
+		}
+
+		//roll the probability up front, so chunks without a chest to place are not loaded
+		List<SpecialChest> selected = chests.stream()
+				.filter(specialChest -> options.has(ignoreProbability) || specialChest.getProbability() > ThreadLocalRandom.current().nextDouble())
+				.collect(Collectors.toList());
+		this.plugin.placement.submit(selected, specialChest -> {
+			if(!specialChest.place(options.has(force))) {
+				return false;
+			}
+			this.plugin.playerLoot.reset(specialChest);
+			return true;
+		}, (handled, total) -> sender.sendMessage(message("message.command.place.progress").replace("%done%", String.valueOf(handled)).replace("%total%", String.valueOf(total))), placedChests -> {
+			String message = message("message.command.place.success_" + (placedChests == 1 ? "single" : "multiple")).replace("%count%", String.valueOf(placedChests));
+			sendOrBroadcast(sender, message, options.has(broadcast));
+		});
 		return true;
 	}
 
 	/*
 	 * [OPTION]... [(<x> <y> <z> [<world>])|<groups>]
+	 * groups are a group query like caves,mines&hard,!event
 	 *
 	 * -f
 	 * --file
@@ -309,6 +368,10 @@ public class LootCaveCommand implements CommandExecutor {
 	 * --inventory
 	 * clear the chest's inventory
 	 *
+	 * -r <radius>
+	 * --radius=<radius>
+	 * the chests within radius blocks of you, only those of the groups if given
+	 *
 	 * -B
 	 * --broadcast
 	 */
@@ -318,6 +381,7 @@ public class LootCaveCommand implements CommandExecutor {
 		OptionSpec<Void> inventory = parser.acceptsAll(Arrays.asList("i", "inventory"));
 		OptionSpec<Void> world = parser.acceptsAll(Arrays.asList("w", "world"));
 		OptionSpec<Void> file = parser.acceptsAll(Arrays.asList("f", "file"));
+		OptionSpec<Double> radius = parser.acceptsAll(Arrays.asList("r", "radius")).withRequiredArg().ofType(Double.class);
 		OptionSpec<Void> broadcast = parser.acceptsAll(Arrays.asList("B", "broadcast"));
 
 		OptionSet options = parser.parse(args);
@@ -328,48 +392,332 @@ public class LootCaveCommand implements CommandExecutor {
 		}
 
 		Collection<SpecialChest> chests;
-		if(rest.size() == 1) {
-			List<String> groups = Arrays.asList(rest.get(0).split(","));
-			chests = this.plugin.chestsByLocation.values().stream()
-					.filter(chest -> chest.isInAnyGroup(groups))
-					.collect(Collectors.toSet());
+		if(options.has(radius)) {
+			if(!(sender instanceof Player) || rest.size() > 1) {
+				sender.sendMessage(message("message.command.remove.error_location_missing"));
+				return false;
+			}
+			chests = this.selectNearby((Player) sender, radius.value(options), rest);
+		} else if(rest.size() == 1) {
+			chests = this.plugin.getChestRegistry().select(GroupQuery.parse(rest.get(0)));
 		} else {
 			Location location = getLocation(sender, rest);
 			if(location == null) {
 				sender.sendMessage(message("message.command.remove.error_location_missing"));
 				return false;
 			}
-			if(!this.plugin.chestsByLocation.containsKey(location)) {
+			if(!this.plugin.getChestRegistry().contains(location)) {
 				sender.sendMessage(message("message.command.remove.error_location_invalid"));
 				return true;
 			}
-			chests = Collections.singleton(this.plugin.chestsByLocation.get(location));
+			chests = Collections.singleton(this.plugin.getChestRegistry().get(location));
 		}
 
 		if(options.has(inventory)) {
-			chests.forEach(SpecialChest::resetInventory);
+			this.plugin.playerLoot.reset(chests);
 			String message = message("message.command.remove.success_inventory_" + (chests.size() == 1 ? "single" : "multiple")).replace("%count%", String.valueOf(chests.size()));
 			sendOrBroadcast(sender, message, options.has(broadcast));
 		}
 		if(options.has(world)) {
-			long removedCount = chests.stream()
-					.filter(SpecialChest::remove)
-					.count();
-			String message = message("message.command.remove.success_world_" + (removedCount == 1 ? "single" : "multiple")).replace("%count%", String.valueOf(removedCount));
-			sendOrBroadcast(sender, message, options.has(broadcast));
+			this.plugin.pendingPlacements.unmark(chests);
+			this.plugin.placement.submit(chests, SpecialChest::remove, (handled, total) -> sender.sendMessage(message("message.command.remove.progress_world").replace("%done%", String.valueOf(handled)).replace("%total%", String.valueOf(total))), removedCount -> {
+				String message = message("message.command.remove.success_world_" + (removedCount == 1 ? "single" : "multiple")).replace("%count%", String.valueOf(removedCount));
+				sendOrBroadcast(sender, message, options.has(broadcast));
+			});
 		}
 		if(options.has(file)) {
-			chests.forEach(specialChest -> this.plugin.chestsByLocation.remove(specialChest.getLocation()));
+			this.plugin.getChestRegistry().removeAll(chests);
+			this.plugin.pendingPlacements.unmark(chests);
+			//a chest added at the same position later must not show the old loot
+			this.plugin.playerLoot.reset(chests);
+			this.plugin.deleteChests(chests, success -> {
+				if(success) {
+					String message = message("message.command.remove.success_file_" + (chests.size() == 1 ? "single" : "multiple")).replace("%count%", String.valueOf(chests.size()));
+					sendOrBroadcast(sender, message, options.has(broadcast));
+				} else {
+					sender.sendMessage(message("message.command.remove.error_file_write"));
+				}
+			});
+		}
+		return true;
+	}
+
+	/*
+	 * [OPTION]... <lootTable> (<x1> <y1> <z1> <x2> <y2> <z2>)|(--chunks <chunks>) [<world>]
+	 *
+	 * register every chest block in the cuboid or chunks. name, lock, facing and waterlogged are taken from the block
+	 *
+	 * -c <chunks>
+	 * --chunks=<chunks>
+	 * scan whole chunks instead of a cuboid, e.g. 0,0;0,1;-1,5
+	 *
+	 * -p <probability>
+	 * --probability=<probability>
+	 *
+	 * -g
+	 * --groups
+	 *
+	 * -B
+	 * --broadcast
+	 */
+	private boolean onScanCommand(CommandSender sender, String[] args) {
+		OptionParser parser = new OptionParser(false);
+		parser.posixlyCorrect(true);
+		OptionSpec<String> chunks = parser.acceptsAll(Arrays.asList("c", "chunks")).withRequiredArg();
+		OptionSpec<Double> probability = parser.acceptsAll(Arrays.asList("p", "probability")).withRequiredArg().ofType(Double.class);
+		OptionSpec<String> groups = parser.acceptsAll(Arrays.asList("g", "groups")).withRequiredArg();
+		OptionSpec<Void> broadcast = parser.acceptsAll(Arrays.asList("B", "broadcast"));
+
+		OptionSet options = parser.parse(args);
+		@SuppressWarnings("unchecked") List<String> rest = (List<String>) options.nonOptionArguments();
+		int coordinates = options.has(chunks) ? 0 : 6;
+		if(rest.size() != 1 + coordinates && rest.size() != 2 + coordinates) {
+			return false;
+		}
+
+		World world;
+		if(rest.size() == 2 + coordinates) {
+			world = Bukkit.getWorld(rest.get(1 + coordinates));
+		} else {
+			world = sender instanceof Player ? ((Player) sender).getWorld() : null;
+		}
+		if(world == null) {
+			sender.sendMessage(message("message.command.scan.error_world_missing"));
+			return false;
+		}
+		LootTable lootTable = rest.get(0).contains(":") ? SpecialChest.Builder.lookupLootTable(rest.get(0)) : null;
+		if(lootTable == null) {
+			sender.sendMessage(message("message.command.scan.error_loot_table_invalid"));
+			return true;
+		}
+
+		int[] min = {Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+		int[] max = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+		long[] chunkKeys;
+		if(options.has(chunks)) {
+			try {
+				chunkKeys = Arrays.stream(chunks.value(options).split(";"))
+						.map(chunk -> chunk.split(","))
+						.mapToLong(chunk -> ChestRegistry.chunkKey(Integer.parseInt(chunk[0].trim()), Integer.parseInt(chunk[1].trim())))
+						.distinct()
+						.toArray();
+			} catch(NumberFormatException | ArrayIndexOutOfBoundsException e) {
+				sender.sendMessage(message("message.command.scan.error_chunks_invalid"));
+				return false;
+			}
+		} else {
 			try {
-				this.plugin.writeChestsFile();
-				String message = message("message.command.remove.success_file_" + (chests.size() == 1 ? "single" : "multiple")).replace("%count%", String.valueOf(chests.size()));
+				for(int i = 0; i < 3; i++) {
+					int a = (int) Math.floor(Double.valueOf(rest.get(1 + i)));
+					int b = (int) Math.floor(Double.valueOf(rest.get(4 + i)));
+					min[i] = Math.min(a, b);
+					max[i] = Math.max(a, b);
+				}
+			} catch(NumberFormatException e) {
+				return false;
+			}
+			List<Long> keys = new ArrayList<>();
+			for(int chunkX = min[0] >> 4; chunkX <= max[0] >> 4; chunkX++) {
+				for(int chunkZ = min[2] >> 4; chunkZ <= max[2] >> 4; chunkZ++) {
+					keys.add(ChestRegistry.chunkKey(chunkX, chunkZ));
+				}
+			}
+			chunkKeys = keys.stream().mapToLong(Long::longValue).toArray();
+		}
+
+		this.plugin.placement.scan(world, chunkKeys, state -> {
+			if(state.getX() < min[0] || state.getX() > max[0] || state.getY() < min[1] || state.getY() > max[1] || state.getZ() < min[2] || state.getZ() > max[2]) {
+				return null;
+			}
+			SpecialChest.Builder chest = new SpecialChest.Builder(world.getName(), state.getX(), state.getY(), state.getZ(), lootTable);
+			org.bukkit.block.data.type.Chest data = (org.bukkit.block.data.type.Chest) state.getBlockData();
+			chest.setFacing(data.getFacing());
+			chest.setWaterlogged(data.isWaterlogged());
+			chest.setCustomName(state.getCustomName());
+			if(state.isLocked()) {
+				chest.setLock(state.getLock());
+			}
+			if(options.has(probability)) {
+				chest.setProbability(probability.value(options));
+			}
+			if(options.has(groups)) {
+				chest.addGroups(Arrays.asList(groups.value(options).split(",")));
+			}
+			return chest.build();
+		}, (handled, total) -> sender.sendMessage(message("message.command.scan.progress").replace("%done%", String.valueOf(handled)).replace("%total%", String.valueOf(total))), found -> {
+			List<SpecialChest> overwritten = new ArrayList<>();
+			this.plugin.getChestRegistry().update(editor -> found.forEach(chest -> {
+				if(editor.add(chest) != null) {
+					overwritten.add(chest);
+				}
+			}));
+			this.plugin.playerLoot.reset(overwritten);
+			String message = message("message.command.scan.success_" + (found.size() == 1 ? "single" : "multiple")).replace("%count%", String.valueOf(found.size()));
+			if(found.isEmpty()) {
 				sendOrBroadcast(sender, message, options.has(broadcast));
-			} catch(IOException e) {
-				e.printStackTrace();
-				sender.sendMessage(message("message.command.remove.error_file_write"));
-				return true;
+				return;
+			}
+			//one write for the whole scan
+			this.plugin.saveChests(found, success -> {
+				if(success) {
+					sendOrBroadcast(sender, message, options.has(broadcast));
+				} else {
+					sender.sendMessage(message("message.command.scan.error_file_write"));
+				}
+			});
+		});
+		return true;
+	}
+
+	/*
+	 * [OPTION]... [<groups>]
+	 * list the chests closest to you
+	 * groups are a group query like caves,mines&hard,!event
+	 *
+	 * -r <radius>
+	 * --radius=<radius>
+	 * only chests within radius blocks, 64 by default
+	 *
+	 * -n <count>
+	 * --count=<count>
+	 * list at most count chests, 10 by default
+	 */
+	private boolean onNearCommand(CommandSender sender, String[] args) {
+		OptionParser parser = new OptionParser(false);
+		parser.posixlyCorrect(true);
+		OptionSpec<Double> radius = parser.acceptsAll(Arrays.asList("r", "radius")).withRequiredArg().ofType(Double.class).defaultsTo(64d);
+		OptionSpec<Integer> count = parser.acceptsAll(Arrays.asList("n", "count")).withRequiredArg().ofType(Integer.class).defaultsTo(10);
+
+		OptionSet options = parser.parse(args);
+		@SuppressWarnings("unchecked") List<String> rest = (List<String>) options.nonOptionArguments();
+
+		if(!(sender instanceof Player) || rest.size() > 1) {
+			sender.sendMessage(message("message.command.near.error_location_missing"));
+			return false;
+		}
+		Location center = ((Player) sender).getLocation();
+		List<SpecialChest> chests = rest.isEmpty()
+				? this.plugin.getChestRegistry().nearest(center, count.value(options), radius.value(options))
+				: this.selectNearby((Player) sender, radius.value(options), rest).stream().limit(count.value(options)).collect(Collectors.toList());
+
+		sender.sendMessage(message("message.command.near.success").replace("%count%", String.valueOf(chests.size())).replace("%radius%", String.valueOf(radius.value(options))));
+		for(SpecialChest chest : chests) {
+			sender.sendMessage(ChatColor.AQUA + "" + chest.getX() + " " + chest.getY() + " " + chest.getZ()
+					+ ChatColor.GRAY + String.format(Locale.ROOT, " %.1fm ", Math.sqrt(ChestRegistry.distanceSquared(chest, center.getX(), center.getY(), center.getZ())))
+					+ chest.getLootTable().getKey()
+					+ (chest.getGroups().isEmpty() ? "" : " " + String.join(",", chest.getGroups())));
+		}
+		return true;
+	}
+
+	//the chests within the radius of the player, closest first. only those matching the group query if given
+	private List<SpecialChest> selectNearby(Player player, double radius, List<String> groups) {
+		List<SpecialChest> chests = this.plugin.getChestRegistry().withinRadius(player.getLocation(), radius);
+		if(!groups.isEmpty()) {
+			GroupQuery query = GroupQuery.parse(groups.get(0));
+			chests.removeIf(chest -> !query.matches(chest));
+		}
+		return chests;
+	}
+
+	/*
+	 * show the durations, cache hit rates and sizes collected since the server started
+	 */
+	private boolean onStatsCommand(CommandSender sender) {
+		Metrics metrics = this.plugin.metrics;
+		sender.sendMessage(ChatColor.AQUA + this.plugin.getName() + ChatColor.GRAY + " stats");
+		for(Histogram histogram : metrics.getHistograms()) {
+			long count = histogram.getCount();
+			sender.sendMessage(ChatColor.GRAY + shortName(histogram.getName()) + ": " + ChatColor.AQUA + count + ChatColor.GRAY + "x"
+					+ (count == 0 ? "" : ", avg " + millis(histogram.getSum() / count)
+					+ ", p50 " + millis(histogram.getQuantile(0.5))
+					+ ", p99 " + millis(histogram.getQuantile(0.99))
+					+ ", max " + millis(histogram.getMax())));
+		}
+		sender.sendMessage(ChatColor.GRAY + "player loot cache: " + hitRate(metrics.playerLootHits.get(), metrics.playerLootMisses.get()));
+		sender.sendMessage(ChatColor.GRAY + "preroll: " + hitRate(metrics.prerollHits.get(), metrics.prerollMisses.get()));
+		sender.sendMessage(ChatColor.GRAY + "chests file: " + ChatColor.AQUA + metrics.chestsReadBytes.get() + ChatColor.GRAY + " bytes read, "
+				+ ChatColor.AQUA + metrics.chestsWriteBytes.get() + ChatColor.GRAY + " bytes written");
+		for(Metrics.Gauge gauge : metrics.getGauges()) {
+			sender.sendMessage(ChatColor.GRAY + shortName(gauge.getName()) + ": " + ChatColor.AQUA + gauge.get());
+		}
+		return true;
+	}
+
+	private static String shortName(String metricName) {
+		return metricName.replaceFirst("^lootcave_", "").replaceFirst("_seconds$", "").replace('_', ' ');
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3fms", nanos / 1e6);
+	}
+
+	private static String hitRate(long hits, long misses) {
+		long total = hits + misses;
+		return ChatColor.AQUA + (total == 0 ? "-" : String.format(Locale.ROOT, "%.1f%%", 100d * hits / total)) + ChatColor.GRAY + " hits (" + hits + "/" + total + ")";
+	}
+
+	private static boolean isChunkLoaded(SpecialChest chest) {
+		World world = Bukkit.getWorld(chest.getWorldName());
+		return world != null && world.isChunkLoaded(chest.getX() >> 4, chest.getZ() >> 4);
+	}
+
+	private static StorageFormat parseStorageFormat(String[] args) {
+		if(args.length != 1) {
+			return null;
+		}
+		try {
+			return StorageFormat.valueOf(args[0].toUpperCase(Locale.ROOT));
+		} catch(IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/*
+	 * <json|binary>
+	 *
+	 * write every chest to chests.json or chests.bin
+	 */
+	private boolean onExportCommand(CommandSender sender, String[] args) {
+		StorageFormat format = parseStorageFormat(args);
+		if(format == null) {
+			return false;
+		}
+		int count = this.plugin.getChestRegistry().size();
+		String fileName = format.getFileName();
+		this.plugin.exportChests(format, success -> {
+			if(success) {
+				sender.sendMessage(message("message.command.export.success").replace("%count%", String.valueOf(count)).replace("%file%", fileName));
+			} else {
+				sender.sendMessage(message("message.command.export.error_file_write"));
 			}
+		});
+		return true;
+	}
+
+	/*
+	 * <json|binary>
+	 *
+	 * replace every chest with the ones from chests.json or chests.bin
+	 */
+	private boolean onImportCommand(CommandSender sender, String[] args) {
+		StorageFormat format = parseStorageFormat(args);
+		if(format == null) {
+			return false;
+		}
+		final int count;
+		try {
+			count = this.plugin.importChests(format, success -> {
+				if(!success) {
+					sender.sendMessage(message("message.command.import.error_file_write"));
+				}
+			});
+		} catch(IOException e) {
+			e.printStackTrace();
+			sender.sendMessage(message("message.command.import.error_file_read"));
+			return true;
 		}
+		sender.sendMessage(message("message.command.import.success").replace("%count%", String.valueOf(count)).replace("%file%", format.getFileName()));
 		return true;
 	}
 
@@ -18,15 +18,16 @@
 package de.selebrator.lootcave.listener;
 
 import de.selebrator.lootcave.LootCavePlugin;
+import de.selebrator.lootcave.SpecialChest;
+import de.selebrator.lootcave.storage.PlayerLootStore;
+import org.bukkit.Location;
 import org.bukkit.entity.HumanEntity;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
-import org.bukkit.event.inventory.InventoryEvent;
 import org.bukkit.event.inventory.InventoryOpenEvent;
+import org.bukkit.event.inventory.InventoryType;
 import org.bukkit.inventory.Inventory;
-import org.bukkit.inventory.ItemStack;
 
-import java.util.Optional;
 import java.util.concurrent.ThreadLocalRandom;
 
 public class LootCaveChestListener implements Listener {
@@ -37,29 +38,41 @@ public class LootCaveChestListener implements Listener {
 		this.plugin = plugin;
 	}
 
-	private static boolean isEmpty(Inventory inventory) {
-		for(ItemStack item : inventory.getStorageContents()) {
-			if(item != null) {
-				return false;
-			}
-		}
-		return true;
-	}
-
 	@EventHandler
 	public void onInventoryOpen(InventoryOpenEvent event) {
-		Optional.of(event)
-				.map(InventoryEvent::getInventory)
-				.map(Inventory::getLocation)
-				.map(this.plugin.chestsByLocation::get)
-				.ifPresent(specialChest -> {
-					event.setCancelled(true);
-					HumanEntity player = event.getPlayer();
-					if(this.plugin.blockEmptyChests && specialChest.getInventory(player.getUniqueId()) != null && isEmpty(specialChest.getInventory(player.getUniqueId()))) {
-						player.sendMessage(this.plugin.message("message.event.chest_already_looted"));
-						return;
-					}
-					specialChest.open(player, ThreadLocalRandom.current());
-				});
+		//every open that is not a lootcave chest counts as a miss, including the early rejects
+		final long start = System.nanoTime();
+		final Inventory inventory = event.getInventory();
+		//furnaces, ender chests, crafting views, ... can never be a lootcave chest. reject them before allocating a location
+		if(inventory.getType() != InventoryType.CHEST) {
+			this.plugin.metrics.openMiss.recordSince(start);
+			return;
+		}
+		final Location location = inventory.getLocation();
+		if(location == null) {
+			this.plugin.metrics.openMiss.recordSince(start);
+			return;
+		}
+		final SpecialChest specialChest = this.plugin.getChestRegistry().get(location);
+		if(specialChest == null) {
+			this.plugin.metrics.openMiss.recordSince(start);
+			return;
+		}
+		//a shared chest opens its own inventory, like any other chest
+		if(this.plugin.playerLoot.getMode(specialChest) == PlayerLootStore.LootMode.SHARED) {
+			this.plugin.metrics.openHit.recordSince(start);
+			return;
+		}
+		event.setCancelled(true);
+		HumanEntity player = event.getPlayer();
+		if(this.plugin.blockEmptyChests) {
+			if(this.plugin.playerLoot.isLooted(player, specialChest)) {
+				player.sendMessage(this.plugin.message("message.event.chest_already_looted"));
+				this.plugin.metrics.openHit.recordSince(start);
+				return;
+			}
+		}
+		player.openInventory(this.plugin.playerLoot.getOrCreateInventory(player, specialChest, ThreadLocalRandom.current()));
+		this.plugin.metrics.openHit.recordSince(start);
 	}
 }
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2019  Selebrator
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.selebrator.lootcave.listener;
+
+import de.selebrator.lootcave.LootCavePlugin;
+import org.bukkit.Bukkit;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldInitEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+public class WorldListener implements Listener {
+
+	private final LootCavePlugin plugin;
+
+	public WorldListener(LootCavePlugin plugin) {
+		this.plugin = plugin;
+	}
+
+	//before the spawn chunks load, so their chunk events already find the chests indexed
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onWorldInit(WorldInitEvent event) {
+		this.plugin.getChestRegistry().wake(event.getWorld().getName());
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onWorldUnload(WorldUnloadEvent event) {
+		final String worldName = event.getWorld().getName();
+		this.plugin.playerLoot.releaseWorld(worldName);
+		//the world is only gone after the event, chests accessed until then would bind it again
+		Bukkit.getScheduler().runTask(this.plugin, () -> {
+			if(Bukkit.getWorld(worldName) == null) {
+				this.plugin.getChestRegistry().sleep(worldName);
+			}
+		});
+	}
+}
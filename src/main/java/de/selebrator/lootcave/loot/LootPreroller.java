@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2019  Selebrator
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.selebrator.lootcave.loot;
+
+import de.selebrator.lootcave.SpecialChest;
+import de.selebrator.lootcave.metrics.Metrics;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.attribute.Attribute;
+import org.bukkit.attribute.AttributeInstance;
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.loot.LootContext;
+import org.bukkit.loot.LootTable;
+import org.bukkit.plugin.Plugin;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/*
+ * Rolls loot ahead of time on worker threads, so opening a chest only has to copy an already rolled result.
+ * There is one small buffer per loot table and luck bucket (the player's luck rounded to a whole number).
+ * Taking a result refills the buffer in the background. When a buffer is empty, the caller rolls on its own.
+ *
+ * Loot tables are not documented to be thread safe. Only enable this for loot tables that do not depend on the world.
+ */
+public class LootPreroller {
+
+	private final Plugin plugin;
+	private final Metrics metrics;
+	private final int bufferSize;
+	private final ExecutorService workers;
+	private final Map<Key, Buffer> buffers = new ConcurrentHashMap<>();
+	private volatile boolean failureLogged;
+
+	public LootPreroller(Plugin plugin, Metrics metrics, int bufferSize, int threads) {
+		this.plugin = plugin;
+		this.metrics = metrics;
+		this.bufferSize = Math.max(1, bufferSize);
+		final AtomicInteger threadNumber = new AtomicInteger();
+		this.workers = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+			final Thread thread = new Thread(runnable, "LootCave LootPreroller #" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+	}
+
+	public static int luckBucket(HumanEntity player) {
+		final AttributeInstance luck = player.getAttribute(Attribute.GENERIC_LUCK);
+		return luck == null ? 0 : (int) Math.round(luck.getValue());
+	}
+
+	//an already rolled result for that chest and player, or null if there is none yet
+	public ItemStack[] take(SpecialChest chest, HumanEntity player) {
+		if(chest.getLootTable() == null) {
+			return null;
+		}
+		final Buffer buffer = this.buffers.computeIfAbsent(new Key(chest.getLootTable(), luckBucket(player)), Buffer::new);
+		final ItemStack[] contents = buffer.rolled.poll();
+		if(contents != null) {
+			buffer.pending.decrementAndGet();
+			this.metrics.prerollHits.increment();
+		} else {
+			this.metrics.prerollMisses.increment();
+		}
+		buffer.refill(chest.getLocation());
+		return contents;
+	}
+
+	//fills the luck 0 buffer of every loot table used by those chests
+	public void warm(Collection<SpecialChest> chests) {
+		for(SpecialChest chest : chests) {
+			if(chest.getLootTable() != null && chest.getLocation().getWorld() != null) {
+				this.buffers.computeIfAbsent(new Key(chest.getLootTable(), 0), Buffer::new).refill(chest.getLocation());
+			}
+		}
+	}
+
+	public void close() {
+		this.workers.shutdownNow();
+		this.buffers.clear();
+	}
+
+	private static class Key {
+		private final LootTable lootTable;
+		private final int luck;
+
+		private Key(LootTable lootTable, int luck) {
+			this.lootTable = lootTable;
+			this.luck = luck;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(this == o) {
+				return true;
+			}
+			if(!(o instanceof Key)) {
+				return false;
+			}
+			final Key key = (Key) o;
+			return this.luck == key.luck && this.lootTable.equals(key.lootTable);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.lootTable, this.luck);
+		}
+	}
+
+	private class Buffer {
+		private final Key key;
+		private final Queue<ItemStack[]> rolled = new ConcurrentLinkedQueue<>();
+		//rolled results plus rolls in progress
+		private final AtomicInteger pending = new AtomicInteger();
+
+		private Buffer(Key key) {
+			this.key = key;
+		}
+
+		private void refill(Location location) {
+			while(true) {
+				final int current = this.pending.get();
+				if(current >= LootPreroller.this.bufferSize) {
+					return;
+				}
+				if(this.pending.compareAndSet(current, current + 1)) {
+					try {
+						LootPreroller.this.workers.execute(() -> this.roll(location));
+					} catch(RejectedExecutionException e) {
+						this.pending.decrementAndGet();
+						return;
+					}
+				}
+			}
+		}
+
+		private void roll(Location location) {
+			try {
+				final Inventory inventory = Bukkit.createInventory(null, InventoryType.CHEST);
+				final LootContext lootContext = new LootContext.Builder(location)
+						.luck(this.key.luck)
+						.build();
+				this.key.lootTable.fillInventory(inventory, ThreadLocalRandom.current(), lootContext);
+				this.rolled.add(inventory.getContents());
+			} catch(RuntimeException e) {
+				this.pending.decrementAndGet();
+				if(!LootPreroller.this.failureLogged) {
+					LootPreroller.this.failureLogged = true;
+					LootPreroller.this.plugin.getLogger().log(Level.WARNING, "Could not roll loot in the background, falling back to rolling when chests are opened", e);
+				}
+			}
+		}
+	}
+}
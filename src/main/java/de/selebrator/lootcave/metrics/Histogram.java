@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2019  Selebrator
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.selebrator.lootcave.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Durations in fixed power of two buckets from 1 microsecond to about 8.6 seconds, plus one bucket for everything above.
+ * Recording is a few atomic increments and safe from any thread.
+ */
+public final class Histogram {
+
+	private static final int MIN_SHIFT = 10;
+	private static final int BUCKETS = 24;
+
+	private final String name;
+	private final String help;
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS + 1);
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	Histogram(String name, String help) {
+		this.name = name;
+		this.help = help;
+	}
+
+	//upper bound of the bucket in nanoseconds
+	static long upperBound(int bucket) {
+		return 1L << (MIN_SHIFT + bucket);
+	}
+
+	static int bucketCount() {
+		return BUCKETS;
+	}
+
+	public void record(long nanos) {
+		final long value = Math.max(0, nanos);
+		//the smallest bucket whose upper bound is at least the value
+		final int bucket = value <= 1 ? 0 : Math.max(0, 64 - Long.numberOfLeadingZeros(value - 1) - MIN_SHIFT);
+		this.counts.incrementAndGet(Math.min(bucket, BUCKETS));
+		this.sum.add(value);
+		this.max.accumulate(value);
+	}
+
+	//records the time since start, as returned by System.nanoTime()
+	public void recordSince(long start) {
+		this.record(System.nanoTime() - start);
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public String getHelp() {
+		return this.help;
+	}
+
+	long getCount(int bucket) {
+		return this.counts.get(bucket);
+	}
+
+	public long getCount() {
+		long count = 0;
+		for(int i = 0; i <= BUCKETS; i++) {
+			count += this.counts.get(i);
+		}
+		return count;
+	}
+
+	public long getSum() {
+		return this.sum.sum();
+	}
+
+	public long getMax() {
+		return this.max.get();
+	}
+
+	//the upper bound of the bucket containing the quantile, so at most twice the actual value
+	public long getQuantile(double quantile) {
+		final long count = this.getCount();
+		if(count == 0) {
+			return 0;
+		}
+		final long rank = (long) Math.ceil(quantile * count);
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += this.counts.get(i);
+			if(seen >= rank) {
+				return Math.min(upperBound(i), this.getMax());
+			}
+		}
+		return this.getMax();
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2019  Selebrator
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.selebrator.lootcave.metrics;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/*
+ * Histograms, counters and gauges of the plugin's main operations.
+ * Histograms and counters may be updated from any thread. Gauges are read on the main thread, when the metrics are rendered.
+ */
+public final class Metrics {
+
+	//declared first, the fields below register themselves here
+	private final List<Histogram> histograms = new ArrayList<>();
+	private final List<Counter> counters = new ArrayList<>();
+	private final Map<String, Gauge> gauges = new LinkedHashMap<>();
+
+	public final Histogram openHit = this.histogram("lootcave_open_hit_seconds", "Time to handle opening a lootcave chest");
+	public final Histogram openMiss = this.histogram("lootcave_open_miss_seconds", "Time to handle opening an inventory that is not a lootcave chest");
+	public final Histogram lootGeneration = this.histogram("lootcave_loot_generation_seconds", "Time to roll the loot of a chest");
+	public final Histogram chestsRead = this.histogram("lootcave_chests_read_seconds", "Time to read the chests file and replay its journal");
+	public final Histogram chestsWrite = this.histogram("lootcave_chests_write_seconds", "Time to write the chests file");
+	public final Histogram journalAppend = this.histogram("lootcave_journal_append_seconds", "Time to append changes to the journal");
+	public final Histogram placementTick = this.histogram("lootcave_placement_tick_seconds", "Time spent on placement jobs per tick");
+
+	public final Counter playerLootHits = this.counter("lootcave_player_loot_cache_hits_total", "Chest opens of players whose loot was cached");
+	public final Counter playerLootMisses = this.counter("lootcave_player_loot_cache_misses_total", "Chest opens that had to read the player's loot file");
+	public final Counter prerollHits = this.counter("lootcave_preroll_hits_total", "Loot taken from the pre-rolled buffers");
+	public final Counter prerollMisses = this.counter("lootcave_preroll_misses_total", "Loot rolled on demand because the pre-rolled buffer was empty");
+	public final Counter chestsReadBytes = this.counter("lootcave_chests_read_bytes_total", "Bytes of chests files read");
+	public final Counter chestsWriteBytes = this.counter("lootcave_chests_write_bytes_total", "Bytes of chests files written");
+
+	private Histogram histogram(String name, String help) {
+		final Histogram histogram = new Histogram(name, help);
+		this.histograms.add(histogram);
+		return histogram;
+	}
+
+	private Counter counter(String name, String help) {
+		final Counter counter = new Counter(name, help);
+		this.counters.add(counter);
+		return counter;
+	}
+
+	//the supplier is called on the main thread
+	public void gauge(String name, String help, LongSupplier value) {
+		this.gauges.put(name, new Gauge(name, help, value));
+	}
+
+	public List<Histogram> getHistograms() {
+		return Collections.unmodifiableList(this.histograms);
+	}
+
+	public List<Counter> getCounters() {
+		return Collections.unmodifiableList(this.counters);
+	}
+
+	public Collection<Gauge> getGauges() {
+		return Collections.unmodifiableCollection(this.gauges.values());
+	}
+
+	//the prometheus text format. call on the main thread
+	public String toPrometheus() {
+		final StringBuilder out = new StringBuilder(4096);
+		for(Histogram histogram : this.histograms) {
+			header(out, histogram.getName(), histogram.getHelp(), "histogram");
+			long cumulative = 0;
+			for(int i = 0; i < Histogram.bucketCount(); i++) {
+				cumulative += histogram.getCount(i);
+				out.append(histogram.getName()).append("_bucket{le=\"").append(seconds(Histogram.upperBound(i))).append("\"} ").append(cumulative).append('\n');
+			}
+			cumulative += histogram.getCount(Histogram.bucketCount());
+			out.append(histogram.getName()).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+			out.append(histogram.getName()).append("_sum ").append(seconds(histogram.getSum())).append('\n');
+			out.append(histogram.getName()).append("_count ").append(cumulative).append('\n');
+		}
+		for(Counter counter : this.counters) {
+			header(out, counter.getName(), counter.getHelp(), "counter");
+			out.append(counter.getName()).append(' ').append(counter.get()).append('\n');
+		}
+		for(Gauge gauge : this.gauges.values()) {
+			header(out, gauge.getName(), gauge.getHelp(), "gauge");
+			out.append(gauge.getName()).append(' ').append(gauge.get()).append('\n');
+		}
+		return out.toString();
+	}
+
+	private static void header(StringBuilder out, String name, String help, String type) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static String seconds(long nanos) {
+		return Double.toString(nanos / 1e9);
+	}
+
+	public static final class Counter {
+		private final String name;
+		private final String help;
+		private final LongAdder value = new LongAdder();
+
+		private Counter(String name, String help) {
+			this.name = name;
+			this.help = help;
+		}
+
+		public void increment() {
+			this.value.increment();
+		}
+
+		public void add(long amount) {
+			this.value.add(amount);
+		}
+
+		public long get() {
+			return this.value.sum();
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		public String getHelp() {
+			return this.help;
+		}
+	}
+
+	public static final class Gauge {
+		private final String name;
+		private final String help;
+		private final LongSupplier value;
+
+		private Gauge(String name, String help, LongSupplier value) {
+			this.name = name;
+			this.help = help;
+			this.value = value;
+		}
+
+		public long get() {
+			return this.value.getAsLong();
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		public String getHelp() {
+			return this.help;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2019  Selebrator
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.selebrator.lootcave.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import de.selebrator.lootcave.storage.ChestStore;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Level;
+
+/*
+ * Renders the metrics in the prometheus text format on the main thread every interval,
+ * then writes them to a file in the background and/or serves them at http://127.0.0.1:<port>/metrics.
+ */
+public class MetricsExporter {
+
+	private final Plugin plugin;
+	private final Metrics metrics;
+	private volatile byte[] latest = new byte[0];
+	private BukkitTask task;
+	private HttpServer server;
+
+	public MetricsExporter(Plugin plugin, Metrics metrics) {
+		this.plugin = plugin;
+		this.metrics = metrics;
+	}
+
+	//a null file or a port of 0 disables that export. replaces the running export
+	public void start(long intervalTicks, Path file, int port) {
+		this.close();
+		if(file == null && port <= 0) {
+			return;
+		}
+		if(port > 0) {
+			try {
+				this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+				this.server.createContext("/metrics", exchange -> {
+					final byte[] body = this.latest;
+					exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+					exchange.sendResponseHeaders(200, body.length);
+					try(OutputStream out = exchange.getResponseBody()) {
+						out.write(body);
+					}
+				});
+				this.server.start();
+			} catch(IOException e) {
+				this.plugin.getLogger().log(Level.SEVERE, "Could not serve metrics on port " + port, e);
+				this.server = null;
+			}
+		}
+		this.task = Bukkit.getScheduler().runTaskTimer(this.plugin, () -> {
+			final byte[] rendered = this.metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+			this.latest = rendered;
+			if(file != null) {
+				Bukkit.getScheduler().runTaskAsynchronously(this.plugin, () -> this.write(file, rendered));
+			}
+		}, 0, Math.max(1, intervalTicks));
+	}
+
+	private void write(Path file, byte[] content) {
+		try {
+			final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+			Files.write(temp, content);
+			ChestStore.replace(temp, file);
+		} catch(IOException e) {
+			this.plugin.getLogger().log(Level.WARNING, "Could not write metrics to " + file, e);
+		}
+	}
+
+	public void close() {
+		if(this.task != null) {
+			this.task.cancel();
+			this.task = null;
+		}
+		if(this.server != null) {
+			this.server.stop(0);
+			this.server = null;
+		}
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2019  Selebrator
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.selebrator.lootcave.placement;
+
+import de.selebrator.lootcave.ChestRegistry;
+import de.selebrator.lootcave.SpecialChest;
+import de.selebrator.lootcave.storage.ChestStore;
+import de.selebrator.lootcave.storage.PlayerLootStore;
+import de.selebrator.lootcave.util.LongObjectHashMap;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Chests marked to be placed once their chunk loads, instead of loading the chunk right away.
+ * Marks are grouped by world and chunk, so a chunk load without marks costs a single primitive chunk key probe.
+ * Marked chunks are handled in the tick after they loaded, placing whatever chest is registered at each marked position then.
+ * Marks are kept in pending.yml across restarts.
+ */
+public class PendingPlacements {
+
+	private final Plugin plugin;
+	private final ChestRegistry registry;
+	private final PlayerLootStore playerLoot;
+	private final Path path;
+	private final Map<String, LongObjectHashMap<LongObjectHashMap<Mark>>> marksByWorld = new HashMap<>();
+	private final List<Chunk> loadedChunks = new ArrayList<>();
+	private BukkitTask task;
+	private int size;
+
+	public PendingPlacements(Plugin plugin, ChestRegistry registry, PlayerLootStore playerLoot, Path path) {
+		this.plugin = plugin;
+		this.registry = registry;
+		this.playerLoot = playerLoot;
+		this.path = path;
+	}
+
+	public void mark(SpecialChest chest, boolean force, boolean ignoreProbability) {
+		final Mark mark = new Mark(chest.getWorldName(), chest.getX(), chest.getY(), chest.getZ(), force, ignoreProbability);
+		final LongObjectHashMap<LongObjectHashMap<Mark>> chunks = this.marksByWorld.computeIfAbsent(mark.worldName, worldName -> new LongObjectHashMap<>());
+		final long chunkKey = ChestRegistry.chunkKey(mark.x >> 4, mark.z >> 4);
+		LongObjectHashMap<Mark> marks = chunks.get(chunkKey);
+		if(marks == null) {
+			marks = new LongObjectHashMap<>(4);
+			chunks.put(chunkKey, marks);
+		}
+		if(marks.put(ChestRegistry.blockKey(mark.x, mark.y, mark.z), mark) == null) {
+			this.size++;
+		}
+	}
+
+	public void unmark(Collection<SpecialChest> chests) {
+		if(this.size == 0) {
+			return;
+		}
+		for(SpecialChest chest : chests) {
+			final LongObjectHashMap<LongObjectHashMap<Mark>> chunks = this.marksByWorld.get(chest.getWorldName());
+			if(chunks == null) {
+				continue;
+			}
+			final long chunkKey = ChestRegistry.chunkKey(chest.getX() >> 4, chest.getZ() >> 4);
+			final LongObjectHashMap<Mark> marks = chunks.get(chunkKey);
+			if(marks == null || marks.remove(ChestRegistry.blockKey(chest.getX(), chest.getY(), chest.getZ())) == null) {
+				continue;
+			}
+			this.size--;
+			if(marks.isEmpty()) {
+				chunks.remove(chunkKey);
+				if(chunks.isEmpty()) {
+					this.marksByWorld.remove(chest.getWorldName());
+				}
+			}
+		}
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public void onChunkLoad(Chunk chunk) {
+		final LongObjectHashMap<LongObjectHashMap<Mark>> chunks = this.marksByWorld.get(chunk.getWorld().getName());
+		if(chunks == null || !chunks.containsKey(ChestRegistry.chunkKey(chunk.getX(), chunk.getZ()))) {
+			return;
+		}
+		//changing blocks while the chunk is still being loaded is not safe, wait for the next tick
+		this.loadedChunks.add(chunk);
+		if(this.task == null) {
+			this.task = Bukkit.getScheduler().runTask(this.plugin, this::placeLoaded);
+		}
+	}
+
+	private void placeLoaded() {
+		this.task = null;
+		for(Chunk chunk : this.loadedChunks) {
+			final String worldName = chunk.getWorld().getName();
+			final LongObjectHashMap<LongObjectHashMap<Mark>> chunks = this.marksByWorld.get(worldName);
+			if(chunks == null || !chunk.isLoaded()) {
+				continue;
+			}
+			final LongObjectHashMap<Mark> marks = chunks.remove(ChestRegistry.chunkKey(chunk.getX(), chunk.getZ()));
+			if(marks == null) {
+				continue;
+			}
+			if(chunks.isEmpty()) {
+				this.marksByWorld.remove(worldName);
+			}
+			this.size -= marks.size();
+			marks.forEachValue(mark -> {
+				final SpecialChest chest = this.registry.get(worldName, mark.x, mark.y, mark.z);
+				if(chest == null) {
+					return;
+				}
+				final boolean placed = mark.ignoreProbability
+						? chest.place(mark.force)
+						: chest.place(mark.force, ThreadLocalRandom.current());
+				if(placed) {
+					this.playerLoot.reset(chest);
+				}
+			});
+		}
+		this.loadedChunks.clear();
+	}
+
+	public void load() throws IOException {
+		this.marksByWorld.clear();
+		this.size = 0;
+		if(Files.notExists(this.path)) {
+			return;
+		}
+		try {
+			final YamlConfiguration configuration = new YamlConfiguration();
+			configuration.loadFromString(new String(Files.readAllBytes(this.path), StandardCharsets.UTF_8));
+			for(Map<?, ?> entry : configuration.getMapList("chests")) {
+				final SpecialChest chest = this.registry.get(
+						(String) entry.get("world"),
+						((Number) entry.get("x")).intValue(),
+						((Number) entry.get("y")).intValue(),
+						((Number) entry.get("z")).intValue()
+				);
+				if(chest != null) {
+					this.mark(chest, Boolean.TRUE.equals(entry.get("force")), Boolean.TRUE.equals(entry.get("ignore_probability")));
+				}
+			}
+		} catch(InvalidConfigurationException | RuntimeException e) {
+			throw new IOException("Could not read " + this.path, e);
+		}
+	}
+
+	//call from onDisable. marks of chunks that loaded in the last tick are still saved
+	public void save() throws IOException {
+		if(this.task != null) {
+			this.task.cancel();
+			this.task = null;
+		}
+		this.loadedChunks.clear();
+		if(this.size == 0) {
+			Files.deleteIfExists(this.path);
+			return;
+		}
+		final List<Map<String, Object>> chests = new ArrayList<>(this.size);
+		this.marksByWorld.values().forEach(chunks -> chunks.forEachValue(marks -> marks.forEachValue(mark -> {
+			final Map<String, Object> chest = new LinkedHashMap<>();
+			chest.put("world", mark.worldName);
+			chest.put("x", mark.x);
+			chest.put("y", mark.y);
+			chest.put("z", mark.z);
+			chest.put("force", mark.force);
+			chest.put("ignore_probability", mark.ignoreProbability);
+			chests.add(chest);
+		})));
+		final YamlConfiguration configuration = new YamlConfiguration();
+		configuration.set("chests", chests);
+		final Path temp = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+		Files.write(temp, configuration.saveToString().getBytes(StandardCharsets.UTF_8));
+		ChestStore.replace(temp, this.path);
+	}
+
+	private static final class Mark {
+		private final String worldName;
+		private final int x;
+		private final int y;
+		private final int z;
+		private final boolean force;
+		private final boolean ignoreProbability;
+
+		private Mark(String worldName, int x, int y, int z, boolean force, boolean ignoreProbability) {
+			this.worldName = worldName;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.force = force;
+			this.ignoreProbability = ignoreProbability;
+		}
+	}
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2019  Selebrator
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.selebrator.lootcave.placement;
+
+import de.selebrator.lootcave.ChestRegistry;
+import de.selebrator.lootcave.SpecialChest;
+import de.selebrator.lootcave.metrics.Metrics;
+import de.selebrator.lootcave.util.LongObjectHashMap;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.*;
+
+/*
+ * Changes chests in the world over several ticks, so placing or removing a large group does not freeze the server.
+ * Every tick, at most the configured budget is spent on the queued jobs, oldest job first.
+ * Chests are handled chunk by chunk, so every chunk is visited once per job. Scans for chest blocks are queued the same way.
+ *
+ * Bukkit can not load chunks asynchronously. Unloaded chunks are either loaded within the budget or skipped.
+ */
+public class PlacementScheduler {
+
+	private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+	private final Plugin plugin;
+	private final Metrics metrics;
+	private final Deque<Job> jobs = new ArrayDeque<>();
+	private long budgetNanos = TimeUnit.MILLISECONDS.toNanos(10);
+	private boolean loadChunks = true;
+	private BukkitTask task;
+
+	public PlacementScheduler(Plugin plugin, Metrics metrics) {
+		this.plugin = plugin;
+		this.metrics = metrics;
+	}
+
+	public void configure(long budgetMillis, boolean loadChunks) {
+		//at least one chest has to be handled every tick
+		this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, budgetMillis));
+		this.loadChunks = loadChunks;
+	}
+
+	/*
+	 * Applies the action to every chest. The action returns whether it changed the chest.
+	 * progress receives the number of handled chests and the total now and then, done the number of changed chests at the end.
+	 */
+	public void submit(Collection<SpecialChest> chests, Predicate<SpecialChest> action, BiConsumer<Integer, Integer> progress, IntConsumer done) {
+		this.enqueue(new ChestJob(chests, action, progress, done));
+	}
+
+	/*
+	 * Passes every chest block in the chunks to the scanner, which returns the chest to register for it or null.
+	 * Chunks that were never generated are skipped. done receives every chest the scanner returned.
+	 */
+	public void scan(World world, long[] chunkKeys, Function<org.bukkit.block.Chest, SpecialChest> scanner, BiConsumer<Integer, Integer> progress, Consumer<List<SpecialChest>> done) {
+		this.enqueue(new ScanJob(world, chunkKeys, scanner, progress, done));
+	}
+
+	private void enqueue(Job job) {
+		this.jobs.add(job);
+		if(this.task == null) {
+			this.task = Bukkit.getScheduler().runTaskTimer(this.plugin, this::tick, 1, 1);
+		}
+	}
+
+	public int getQueuedJobs() {
+		return this.jobs.size();
+	}
+
+	private void tick() {
+		final long start = System.nanoTime();
+		final long deadline = start + this.budgetNanos;
+		while(!this.jobs.isEmpty()) {
+			final Job job = this.jobs.peek();
+			if(!job.step(deadline)) {
+				break;
+			}
+			this.jobs.poll();
+			job.finish();
+		}
+		this.metrics.placementTick.recordSince(start);
+		if(this.jobs.isEmpty()) {
+			this.task.cancel();
+			this.task = null;
+		}
+	}
+
+	//drops every queued job without finishing it
+	public void close() {
+		if(this.task != null) {
+			this.task.cancel();
+			this.task = null;
+		}
+		this.jobs.clear();
+	}
+
+	private abstract static class Job {
+		private final BiConsumer<Integer, Integer> progress;
+		private final int total;
+		protected int handled;
+		private long lastProgress = System.nanoTime();
+
+		private Job(BiConsumer<Integer, Integer> progress, int total) {
+			this.progress = progress;
+			this.total = total;
+		}
+
+		//returns true once everything was handled
+		protected abstract boolean step(long deadline);
+
+		protected abstract void finish();
+
+		//returns true if the deadline passed, reporting the progress now and then
+		protected boolean isOver(long deadline) {
+			final long now = System.nanoTime();
+			if(now < deadline) {
+				return false;
+			}
+			if(now - this.lastProgress >= PROGRESS_INTERVAL_NANOS) {
+				this.lastProgress = now;
+				this.progress.accept(this.handled, this.total);
+			}
+			return true;
+		}
+	}
+
+	private final class ChestJob extends Job {
+		private final List<ChunkBatch> batches = new ArrayList<>();
+		private final Predicate<SpecialChest> action;
+		private final IntConsumer done;
+		private int batchIndex;
+		private int chestIndex;
+		private int changed;
+
+		private ChestJob(Collection<SpecialChest> chests, Predicate<SpecialChest> action, BiConsumer<Integer, Integer> progress, IntConsumer done) {
+			super(progress, chests.size());
+			this.action = action;
+			this.done = done;
+			final Map<String, LongObjectHashMap<ChunkBatch>> batchesByWorld = new HashMap<>();
+			for(SpecialChest chest : chests) {
+				final long chunkKey = ChestRegistry.chunkKey(chest.getX() >> 4, chest.getZ() >> 4);
+				final LongObjectHashMap<ChunkBatch> batches = batchesByWorld.computeIfAbsent(chest.getWorldName(), worldName -> new LongObjectHashMap<>());
+				ChunkBatch batch = batches.get(chunkKey);
+				if(batch == null) {
+					batch = new ChunkBatch(chest.getWorldName(), chunkKey);
+					batches.put(chunkKey, batch);
+					this.batches.add(batch);
+				}
+				batch.chests.add(chest);
+			}
+		}
+
+		@Override
+		protected boolean step(long deadline) {
+			while(this.batchIndex < this.batches.size()) {
+				final ChunkBatch batch = this.batches.get(this.batchIndex);
+				if(this.chestIndex == 0 && !this.prepare(batch)) {
+					this.handled += batch.chests.size();
+					this.batchIndex++;
+					continue;
+				}
+				while(this.chestIndex < batch.chests.size()) {
+					if(this.isOver(deadline)) {
+						return false;
+					}
+					if(this.action.test(batch.chests.get(this.chestIndex++))) {
+						this.changed++;
+					}
+					this.handled++;
+				}
+				this.batchIndex++;
+				this.chestIndex = 0;
+			}
+			return true;
+		}
+
+		@Override
+		protected void finish() {
+			this.done.accept(this.changed);
+		}
+
+		//returns false if the chests of that chunk can not be handled now
+		private boolean prepare(ChunkBatch batch) {
+			final World world = Bukkit.getWorld(batch.worldName);
+			if(world == null) {
+				return false;
+			}
+			final int chunkX = ChestRegistry.chunkX(batch.chunkKey);
+			final int chunkZ = ChestRegistry.chunkZ(batch.chunkKey);
+			if(world.isChunkLoaded(chunkX, chunkZ)) {
+				return true;
+			}
+			return PlacementScheduler.this.loadChunks && world.loadChunk(chunkX, chunkZ, true);
+		}
+	}
+
+	private static final class ScanJob extends Job {
+		private final World world;
+		private final long[] chunkKeys;
+		private final Function<org.bukkit.block.Chest, SpecialChest> scanner;
+		private final Consumer<List<SpecialChest>> done;
+		private final List<SpecialChest> found = new ArrayList<>();
+
+		private ScanJob(World world, long[] chunkKeys, Function<org.bukkit.block.Chest, SpecialChest> scanner, BiConsumer<Integer, Integer> progress, Consumer<List<SpecialChest>> done) {
+			super(progress, chunkKeys.length);
+			this.world = world;
+			this.chunkKeys = chunkKeys;
+			this.scanner = scanner;
+			this.done = done;
+		}
+
+		@Override
+		protected boolean step(long deadline) {
+			while(this.handled < this.chunkKeys.length) {
+				if(this.isOver(deadline)) {
+					return false;
+				}
+				final long chunkKey = this.chunkKeys[this.handled++];
+				final int chunkX = ChestRegistry.chunkX(chunkKey);
+				final int chunkZ = ChestRegistry.chunkZ(chunkKey);
+				//only tile entities are visited, not every block of the chunk
+				if(this.world.isChunkLoaded(chunkX, chunkZ) || this.world.loadChunk(chunkX, chunkZ, false)) {
+					for(BlockState state : this.world.getChunkAt(chunkX, chunkZ).getTileEntities()) {
+						if(state.getType() == Material.CHEST) {
+							final SpecialChest chest = this.scanner.apply((org.bukkit.block.Chest) state);
+							if(chest != null) {
+								this.found.add(chest);
+							}
+						}
+					}
+				}
+			}
+			return true;
+		}
+
+		@Override
+		protected void finish() {
+			this.done.accept(this.found);
+		}
+	}
+
+	private static final class ChunkBatch {
+		private final String worldName;
+		private final long chunkKey;
+		private final List<SpecialChest> chests = new ArrayList<>();
+
+		private ChunkBatch(String worldName, long chunkKey) {
+			this.worldName = worldName;
+			this.chunkKey = chunkKey;
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2019  Selebrator
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.selebrator.lootcave.placement;
+
+import de.selebrator.lootcave.ChestRegistry;
+import de.selebrator.lootcave.GroupQuery;
+import de.selebrator.lootcave.SpecialChest;
+import de.selebrator.lootcave.storage.ChestStore;
+import de.selebrator.lootcave.storage.PlayerLootStore;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Respawns the chests of configured groups periodically.
+ * A cycle rolls every chest's probability again, places or removes its block accordingly and resets its inventories.
+ * The work of a cycle is queued on the placement scheduler, so it is spread over as many ticks as the budget requires.
+ * The time of each group's last cycle is kept in respawn.yml, so restarts and reloads continue the period instead of restarting it.
+ * A group seen for the first time starts its period now. Overdue groups are spread evenly over the shortest period
+ * and every cycle is shifted by a random jitter, so groups do not fire on the same tick.
+ */
+public class RespawnScheduler {
+
+	private final Plugin plugin;
+	private final ChestRegistry registry;
+	private final PlayerLootStore playerLoot;
+	private final PlacementScheduler placement;
+	private final PendingPlacements pendingPlacements;
+	private final Path path;
+	private final List<BukkitTask> tasks = new ArrayList<>();
+	//milliseconds since the epoch of the last cycle, by group name
+	private final Map<String, Long> lastRespawns = new HashMap<>();
+	//names of the groups with a cycle in progress. by name, so the guard survives reloads, which create new groups
+	private final Set<String> running = new HashSet<>();
+
+	public RespawnScheduler(Plugin plugin, ChestRegistry registry, PlayerLootStore playerLoot, PlacementScheduler placement, PendingPlacements pendingPlacements, Path path) {
+		this.plugin = plugin;
+		this.registry = registry;
+		this.playerLoot = playerLoot;
+		this.placement = placement;
+		this.pendingPlacements = pendingPlacements;
+		this.path = path;
+	}
+
+	public void load() throws IOException {
+		this.lastRespawns.clear();
+		if(Files.notExists(this.path)) {
+			return;
+		}
+		try {
+			final YamlConfiguration configuration = new YamlConfiguration();
+			configuration.loadFromString(new String(Files.readAllBytes(this.path), StandardCharsets.UTF_8));
+			for(Map<?, ?> entry : configuration.getMapList("groups")) {
+				this.lastRespawns.put((String) entry.get("name"), ((Number) entry.get("last_respawn")).longValue());
+			}
+		} catch(InvalidConfigurationException | RuntimeException e) {
+			throw new IOException("Could not read " + this.path, e);
+		}
+	}
+
+	private void save() {
+		final List<Map<String, Object>> groups = new ArrayList<>(this.lastRespawns.size());
+		this.lastRespawns.forEach((name, lastRespawn) -> {
+			final Map<String, Object> group = new LinkedHashMap<>();
+			group.put("name", name);
+			group.put("last_respawn", lastRespawn);
+			groups.add(group);
+		});
+		final YamlConfiguration configuration = new YamlConfiguration();
+		configuration.set("groups", groups);
+		final Path temp = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+		try {
+			Files.write(temp, configuration.saveToString().getBytes(StandardCharsets.UTF_8));
+			ChestStore.replace(temp, this.path);
+		} catch(IOException e) {
+			this.plugin.getLogger().warning("Could not write " + this.path + ": " + e.getMessage());
+		}
+	}
+
+	//replaces the scheduled cycles. each group continues its period from its last cycle
+	public void start(Collection<Group> groups) {
+		this.close();
+		if(groups.isEmpty()) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		final long stagger = groups.stream().mapToLong(group -> group.periodTicks).min().getAsLong() / groups.size();
+		boolean changed = false;
+		int overdue = 0;
+		for(Group group : groups) {
+			final Long lastRespawn = this.lastRespawns.get(group.name);
+			if(lastRespawn == null) {
+				this.lastRespawns.put(group.name, now);
+				changed = true;
+			}
+			final long remaining = lastRespawn == null ? group.periodTicks : group.periodTicks - Math.max(0, now - lastRespawn) / 50;
+			this.schedule(group, (remaining > 0 ? remaining : stagger * overdue++) + group.jitter());
+		}
+		if(changed) {
+			this.save();
+		}
+	}
+
+	private void schedule(Group group, long delay) {
+		final BukkitTask[] task = new BukkitTask[1];
+		task[0] = Bukkit.getScheduler().runTaskLater(this.plugin, () -> {
+			this.tasks.remove(task[0]);
+			this.respawn(group);
+			this.schedule(group, group.periodTicks + group.jitter());
+		}, Math.max(1, delay));
+		this.tasks.add(task[0]);
+	}
+
+	public void respawn(Group group) {
+		if(this.running.contains(group.name)) {
+			this.plugin.getLogger().warning("Skipping respawn of group " + group.name + ", the previous one is not done yet");
+			return;
+		}
+		this.lastRespawns.put(group.name, System.currentTimeMillis());
+		this.save();
+		final List<SpecialChest> chests = this.registry.select(GroupQuery.of(group.name));
+		this.pendingPlacements.unmark(chests);
+		this.running.add(group.name);
+		this.placement.submit(chests, chest -> {
+			if(chest.getProbability() <= ThreadLocalRandom.current().nextDouble()) {
+				chest.remove();
+				this.playerLoot.reset(chest);
+				return false;
+			}
+			final boolean placed = chest.isPlaced() || chest.place(group.force);
+			//after placing, so a shared chest is filled
+			this.playerLoot.reset(chest);
+			return placed;
+		}, (handled, total) -> {}, count -> {
+			this.running.remove(group.name);
+			this.plugin.getLogger().info("Respawned " + count + " of " + chests.size() + " chests of group " + group.name);
+		});
+	}
+
+	public void close() {
+		this.tasks.forEach(BukkitTask::cancel);
+		this.tasks.clear();
+	}
+
+	public static final class Group {
+		private final String name;
+		private final long periodTicks;
+		private final long jitterTicks;
+		private final boolean force;
+
+		public Group(String name, long periodTicks, long jitterTicks, boolean force) {
+			this.name = name;
+			this.periodTicks = Math.max(1, periodTicks);
+			this.jitterTicks = Math.max(0, jitterTicks);
+			this.force = force;
+		}
+
+		//a random shift within [-jitter, jitter]
+		private long jitter() {
+			return this.jitterTicks == 0 ? 0 : ThreadLocalRandom.current().nextLong(-this.jitterTicks, this.jitterTicks + 1);
+		}
+
+		public String getName() {
+			return this.name;
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2019  Selebrator
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.selebrator.lootcave.storage;
+
+import de.selebrator.lootcave.SpecialChest;
+import org.bukkit.block.BlockFace;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/*
+ * Compact binary snapshot of the chest registry, big endian.
+ *
+ * int magic "LCVB", int version
+ * int stringCount, stringCount * (int byteLength, utf-8 bytes)
+ *     world names, loot table keys, custom names, locks, facings and group names
+ * int groupSetCount, groupSetCount * (int size, size * int string)
+ * int chestCount, chestCount * fixed width record:
+ *     int world, int x, int y, int z, int lootTable, double probability,
+ *     int customName, int lock, int facing, int groupSet, byte flags
+ *
+ * string and group set references are indices into their tables, -1 means absent.
+ * flags bit 0 is waterlogged.
+ */
+public final class BinaryChestFormat {
+
+	private static final int MAGIC = 0x4C435642;
+	private static final int VERSION = 1;
+	private static final int RECORD_SIZE = 4 * 4 + 4 + 8 + 4 * 4 + 1;
+	private static final byte FLAG_WATERLOGGED = 1;
+
+	private BinaryChestFormat() {
+	}
+
+	public static void write(Collection<SpecialChest> chests, OutputStream outputStream) throws IOException {
+		final Map<String, Integer> strings = new LinkedHashMap<>();
+		final Map<Set<String>, Integer> groupSets = new LinkedHashMap<>();
+		for(SpecialChest chest : chests) {
+			intern(strings, chest.getWorldName());
+			intern(strings, chest.getLootTable().getKey().toString());
+			intern(strings, chest.getCustomName());
+			intern(strings, chest.getLock());
+			intern(strings, chest.getFacing() == null ? null : chest.getFacing().name());
+			chest.getGroups().forEach(group -> intern(strings, group));
+			if(!chest.getGroups().isEmpty()) {
+				groupSets.putIfAbsent(chest.getGroups(), groupSets.size());
+			}
+		}
+
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(strings.size());
+		for(String string : strings.keySet()) {
+			final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+		out.writeInt(groupSets.size());
+		for(Set<String> groupSet : groupSets.keySet()) {
+			out.writeInt(groupSet.size());
+			for(String group : groupSet) {
+				out.writeInt(strings.get(group));
+			}
+		}
+		out.writeInt(chests.size());
+		for(SpecialChest chest : chests) {
+			out.writeInt(strings.get(chest.getWorldName()));
+			out.writeInt(chest.getX());
+			out.writeInt(chest.getY());
+			out.writeInt(chest.getZ());
+			out.writeInt(strings.get(chest.getLootTable().getKey().toString()));
+			out.writeDouble(chest.getProbability());
+			out.writeInt(indexOf(strings, chest.getCustomName()));
+			out.writeInt(indexOf(strings, chest.getLock()));
+			out.writeInt(indexOf(strings, chest.getFacing() == null ? null : chest.getFacing().name()));
+			out.writeInt(chest.getGroups().isEmpty() ? -1 : groupSets.get(chest.getGroups()));
+			out.writeByte(chest.isWaterlogged() ? FLAG_WATERLOGGED : 0);
+		}
+		out.flush();
+	}
+
+	private static void intern(Map<String, Integer> strings, String string) {
+		if(string != null) {
+			strings.putIfAbsent(string, strings.size());
+		}
+	}
+
+	private static int indexOf(Map<String, Integer> strings, String string) {
+		return string == null ? -1 : strings.get(string);
+	}
+
+	public static List<SpecialChest.Builder> load(Path path) throws IOException {
+		//read into the heap instead of mapping it. a mapping outlives the channel until it is collected and keeps the file from being replaced on windows
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final long size = channel.size();
+			if(size > Integer.MAX_VALUE) {
+				throw new IOException(path + " is too large");
+			}
+			final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while(buffer.hasRemaining()) {
+				if(channel.read(buffer) < 0) {
+					throw new IOException(path + " is truncated or corrupt");
+				}
+			}
+			buffer.flip();
+			return read(buffer);
+		} catch(BufferUnderflowException | IndexOutOfBoundsException e) {
+			throw new IOException(path + " is truncated or corrupt", e);
+		}
+	}
+
+	private static List<SpecialChest.Builder> read(ByteBuffer buffer) throws IOException {
+		if(buffer.getInt() != MAGIC) {
+			throw new IOException("Not a LootCave binary chest file");
+		}
+		final int version = buffer.getInt();
+		if(version != VERSION) {
+			throw new IOException("Unsupported binary chest file version " + version);
+		}
+
+		final String[] strings = new String[buffer.getInt()];
+		for(int i = 0; i < strings.length; i++) {
+			final byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			strings[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+		final String[][] groupSets = new String[buffer.getInt()][];
+		for(int i = 0; i < groupSets.length; i++) {
+			groupSets[i] = new String[buffer.getInt()];
+			for(int j = 0; j < groupSets[i].length; j++) {
+				groupSets[i][j] = strings[buffer.getInt()];
+			}
+		}
+
+		final int chestCount = buffer.getInt();
+		if(buffer.remaining() < (long) chestCount * RECORD_SIZE) {
+			throw new BufferUnderflowException();
+		}
+		final List<SpecialChest.Builder> chests = new ArrayList<>(chestCount);
+		for(int i = 0; i < chestCount; i++) {
+			final int world = buffer.getInt();
+			final int x = buffer.getInt();
+			final int y = buffer.getInt();
+			final int z = buffer.getInt();
+			final int lootTable = buffer.getInt();
+			final double probability = buffer.getDouble();
+			final int customName = buffer.getInt();
+			final int lock = buffer.getInt();
+			final int facing = buffer.getInt();
+			final int groupSet = buffer.getInt();
+			final byte flags = buffer.get();
+
+			final SpecialChest.Builder chest = new SpecialChest.Builder(strings[world], x, y, z, null);
+			chest.setLootTable(strings[lootTable]);
+			chest.setProbability(probability);
+			if(customName != -1) {
+				chest.setCustomName(strings[customName]);
+			}
+			if(lock != -1) {
+				chest.setLock(strings[lock]);
+			}
+			if(facing != -1) {
+				chest.setFacing(BlockFace.valueOf(strings[facing]));
+			}
+			if(groupSet != -1) {
+				chest.addGroups(Arrays.asList(groupSets[groupSet]));
+			}
+			chest.setWaterlogged((flags & FLAG_WATERLOGGED) != 0);
+			chests.add(chest);
+		}
+		return chests;
+	}
+}
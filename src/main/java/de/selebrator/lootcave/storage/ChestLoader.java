@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2019  Selebrator
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.selebrator.lootcave.storage;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import de.selebrator.lootcave.SpecialChest;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.loot.LootTable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/*
+ * Loads a json array of chests without building a json tree.
+ * The top level array is split into ranges of elements, which are decoded in parallel.
+ * Decoding never touches the server, so loading may run on any thread. The builders are
+ * then built on the main thread by build, which looks up every distinct world and loot table once.
+ */
+public final class ChestLoader {
+
+	private static final int MIN_CHESTS_PER_RANGE = 1024;
+
+	private ChestLoader() {
+	}
+
+	public static List<SpecialChest.Builder> load(Path path) throws IOException {
+		final CharBuffer content = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(Files.readAllBytes(path)));
+		final char[] chars = content.array();
+		final int[] separators = findSeparators(chars, content.limit());
+		final int chestCount = separators.length - 1;
+		if(chestCount == 0 || (chestCount == 1 && isBlank(chars, separators[0] + 1, separators[1]))) {
+			return new ArrayList<>();
+		}
+
+		final int ranges = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), chestCount / MIN_CHESTS_PER_RANGE));
+		final List<List<SpecialChest.Builder>> decoded;
+		try {
+			decoded = IntStream.range(0, ranges)
+					.parallel()
+					.mapToObj(range -> decode(chars, separators[(int) ((long) chestCount * range / ranges)], separators[(int) ((long) chestCount * (range + 1) / ranges)]))
+					.collect(Collectors.toList());
+		} catch(UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		final List<SpecialChest.Builder> builders = new ArrayList<>(chestCount);
+		decoded.forEach(builders::addAll);
+		return builders;
+	}
+
+	//looks up worlds and loot tables through the server, so it must be called from the main thread
+	public static List<SpecialChest> build(Collection<SpecialChest.Builder> builders) {
+		final Function<String, World> worlds = memoize(Bukkit::getWorld);
+		final Function<String, LootTable> lootTables = memoize(SpecialChest.Builder::lookupLootTable);
+		final List<SpecialChest> chests = new ArrayList<>(builders.size());
+		for(SpecialChest.Builder builder : builders) {
+			chests.add(builder.build(worlds, lootTables));
+		}
+		return chests;
+	}
+
+	//positions of the opening bracket, every comma between top level elements and the closing bracket
+	private static int[] findSeparators(char[] chars, int length) {
+		int[] separators = new int[64];
+		int count = 0;
+		int depth = 0;
+		boolean inString = false;
+		for(int i = 0; i < length; i++) {
+			final char c = chars[i];
+			if(inString) {
+				if(c == '\\') {
+					i++;
+				} else if(c == '"') {
+					inString = false;
+				}
+				continue;
+			}
+			switch(c) {
+				case '"':
+					inString = true;
+					break;
+				case '[':
+				case '{':
+					if(depth++ == 0) {
+						if(c != '[') {
+							throw new JsonParseException("Expected an array of chests");
+						}
+						separators[count++] = i;
+					}
+					break;
+				case ']':
+				case '}':
+					if(--depth == 0) {
+						if(count == separators.length) {
+							separators = Arrays.copyOf(separators, count * 2);
+						}
+						separators[count++] = i;
+						return Arrays.copyOf(separators, count);
+					}
+					break;
+				case ',':
+					if(depth == 1) {
+						if(count == separators.length) {
+							separators = Arrays.copyOf(separators, count * 2);
+						}
+						separators[count++] = i;
+					}
+					break;
+			}
+		}
+		throw new JsonParseException("Unterminated array of chests");
+	}
+
+	private static boolean isBlank(char[] chars, int from, int to) {
+		for(int i = from; i < to; i++) {
+			if(!Character.isWhitespace(chars[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	//decodes the elements between two separators
+	private static List<SpecialChest.Builder> decode(char[] chars, int from, int to) {
+		final List<SpecialChest.Builder> builders = new ArrayList<>();
+		try(JsonReader in = new JsonReader(new BracketedReader(chars, from + 1, to))) {
+			in.beginArray();
+			while(in.hasNext()) {
+				builders.add(SpecialChest.Adapter.readBuilder(in));
+			}
+			in.endArray();
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return builders;
+	}
+
+	//caches results, including null for unknown names
+	private static <T> Function<String, T> memoize(Function<String, T> lookup) {
+		final Map<String, T> cache = new HashMap<>();
+		return name -> {
+			if(cache.containsKey(name)) {
+				return cache.get(name);
+			}
+			final T value = lookup.apply(name);
+			cache.put(name, value);
+			return value;
+		};
+	}
+
+	//reads a slice of a char array as a json array, without copying it
+	private static class BracketedReader extends Reader {
+		private final char[] chars;
+		private final int end;
+		private int position;
+		private boolean opened;
+		private boolean closed;
+
+		private BracketedReader(char[] chars, int from, int to) {
+			this.chars = chars;
+			this.position = from;
+			this.end = to;
+		}
+
+		@Override
+		public int read(char[] buffer, int offset, int length) {
+			if(length == 0) {
+				return 0;
+			}
+			int count = 0;
+			if(!this.opened) {
+				this.opened = true;
+				buffer[offset + count++] = '[';
+			}
+			final int copy = Math.min(length - count, this.end - this.position);
+			System.arraycopy(this.chars, this.position, buffer, offset + count, copy);
+			this.position += copy;
+			count += copy;
+			if(count < length && this.position == this.end && !this.closed) {
+				this.closed = true;
+				buffer[offset + count++] = ']';
+			}
+			return count == 0 ? -1 : count;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2019  Selebrator
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.selebrator.lootcave.storage;
+
+import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import de.selebrator.lootcave.SpecialChest;
+import de.selebrator.lootcave.metrics.Metrics;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+/*
+ * Write-behind persistence for the chest save file (chests.json or chests.bin, see StorageFormat).
+ * Single changes are appended to a journal next to the snapshot file, one json record per line.
+ * Full saves (compactions) are coalesced on the main thread, the registry is snapshotted on the main thread
+ * and serialized on a background thread into a temporary file, which then replaces the save file atomically.
+ * Afterwards the journal is truncated. Every write goes through the same single thread, so they happen in submission order.
+ * Journal records are idempotent, so replaying a journal on top of a newer snapshot yields the same state.
+ * A record torn by a crash is skipped on replay and terminated, so later records start on a line of their own.
+ */
+public class ChestStore {
+
+	private static final SpecialChest.Adapter ADAPTER = new SpecialChest.Adapter();
+
+	private final Plugin plugin;
+	private final Metrics metrics;
+	private final Path dataFolder;
+	private final StorageFormat format;
+	private final Path path;
+	private final Path journalPath;
+	private final Supplier<Collection<SpecialChest>> snapshotSupplier;
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+		final Thread thread = new Thread(runnable, "LootCave ChestStore");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	//only touched on the main thread
+	private List<Consumer<Boolean>> pendingCallbacks = new ArrayList<>();
+	private boolean saveScheduled;
+	private long saveDelay;
+	private long compactionThreshold = Long.MAX_VALUE;
+	private final AtomicBoolean compactionRequested = new AtomicBoolean();
+
+	public ChestStore(Plugin plugin, Metrics metrics, Path dataFolder, StorageFormat format, Supplier<Collection<SpecialChest>> snapshotSupplier) {
+		this.plugin = plugin;
+		this.metrics = metrics;
+		this.dataFolder = dataFolder;
+		this.format = format;
+		this.path = dataFolder.resolve(format.getFileName());
+		this.journalPath = path.resolveSibling(path.getFileName() + ".journal");
+		this.snapshotSupplier = snapshotSupplier;
+	}
+
+	public Path getPath() {
+		return this.path;
+	}
+
+	public Path getPath(StorageFormat format) {
+		return this.dataFolder.resolve(format.getFileName());
+	}
+
+	public StorageFormat getFormat() {
+		return this.format;
+	}
+
+	//creates an empty save file, or converts the save file of another format if there is one. must be called from the main thread
+	public void createIfMissing() throws IOException {
+		final StorageFormat source = this.submitAndWait(() -> {
+			if(Files.exists(this.path)) {
+				return this.format;
+			}
+			for(StorageFormat other : StorageFormat.values()) {
+				if(other != this.format && Files.exists(this.getPath(other))) {
+					return other;
+				}
+			}
+			this.write(Collections.emptyList(), this.format, this.path);
+			return this.format;
+		});
+		if(source == this.format) {
+			return;
+		}
+		final Path sourcePath = this.getPath(source);
+		//parsed in the background, built here and written in the background again
+		final List<SpecialChest> chests = ChestLoader.build(this.submitAndWait(() -> source.read(sourcePath)));
+		this.submitAndWait(() -> {
+			this.write(chests, this.format, this.path);
+			return null;
+		});
+		this.plugin.getLogger().info("Converted " + chests.size() + " chests from " + sourcePath.getFileName() + " to " + this.path.getFileName());
+	}
+
+	//reads the save file of the given format, without any journal. waits for queued writes first. must be called from the main thread
+	public List<SpecialChest> read(StorageFormat format) throws IOException {
+		if(format == this.format) {
+			return this.read();
+		}
+		return ChestLoader.build(this.submitAndWait(() -> format.read(this.getPath(format))));
+	}
+
+	//writes a snapshot of the registry in the given format, e.g. to hand edit it. must be called from the main thread
+	public void export(StorageFormat format, Consumer<Boolean> callback) {
+		if(format == this.format) {
+			this.save(callback);
+			return;
+		}
+		final List<SpecialChest> snapshot = new ArrayList<>(this.snapshotSupplier.get());
+		final Path exportPath = this.getPath(format);
+		this.executor.execute(() -> {
+			boolean success;
+			try {
+				this.write(snapshot, format, exportPath);
+				success = true;
+			} catch(IOException | RuntimeException e) {
+				this.plugin.getLogger().log(Level.SEVERE, "Could not write " + exportPath, e);
+				success = false;
+			}
+			final boolean result = success;
+			if(this.plugin.isEnabled()) {
+				Bukkit.getScheduler().runTask(this.plugin, () -> callback.accept(result));
+			}
+		});
+	}
+
+	private <T> T submitAndWait(Callable<T> task) throws IOException {
+		try {
+			return this.executor.submit(task).get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	public void setSaveDelay(long ticks) {
+		this.saveDelay = Math.max(0, ticks);
+	}
+
+	//journal size in bytes after which the journal is folded into the snapshot
+	public void setCompactionThreshold(long bytes) {
+		this.compactionThreshold = bytes > 0 ? bytes : Long.MAX_VALUE;
+	}
+
+	//reads the snapshot and replays the journal on top of it. waits for queued writes first.
+	//the files are parsed on the storage thread, worlds and loot tables are looked up here, so it must be called from the main thread
+	public List<SpecialChest> read() throws IOException {
+		return ChestLoader.build(this.submitAndWait(this::readNow));
+	}
+
+	private List<SpecialChest.Builder> readNow() throws IOException {
+		final long start = System.nanoTime();
+		final List<SpecialChest.Builder> chests = this.replay(this.format.read(this.path));
+		this.metrics.chestsRead.recordSince(start);
+		this.metrics.chestsReadBytes.add(Files.size(this.path) + this.journalSize());
+		return chests;
+	}
+
+	private List<SpecialChest.Builder> replay(List<SpecialChest.Builder> snapshot) throws IOException {
+		if(Files.notExists(this.journalPath) || Files.size(this.journalPath) == 0) {
+			return snapshot;
+		}
+		final Map<String, SpecialChest.Builder> chestsByLocation = new LinkedHashMap<>();
+		snapshot.forEach(chest -> chestsByLocation.putIfAbsent(chest.getId(), chest));
+		int replayed = 0;
+		try(BufferedReader bufferedReader = Files.newBufferedReader(this.journalPath)) {
+			String line;
+			int lineNumber = 0;
+			while((line = bufferedReader.readLine()) != null) {
+				lineNumber++;
+				if(line.isEmpty()) {
+					continue;
+				}
+				try {
+					final JsonObject record = new JsonParser().parse(line).getAsJsonObject();
+					switch(record.getAsJsonPrimitive("op").getAsString()) {
+						case "put":
+							final SpecialChest.Builder chest = SpecialChest.Adapter.readBuilder(new JsonReader(new StringReader(record.get("chest").toString())));
+							chestsByLocation.put(chest.getId(), chest);
+							break;
+						case "remove":
+							chestsByLocation.remove(SpecialChest.id(
+									record.getAsJsonPrimitive("world").getAsString(),
+									record.getAsJsonPrimitive("x").getAsInt(),
+									record.getAsJsonPrimitive("y").getAsInt(),
+									record.getAsJsonPrimitive("z").getAsInt()
+							));
+							break;
+						default:
+							throw new JsonParseException("unknown operation");
+					}
+					replayed++;
+				} catch(RuntimeException e) {
+					//most likely the last record of a crashed write
+					this.plugin.getLogger().warning("Skipping unreadable record in line " + lineNumber + " of " + this.journalPath + ": " + e.getMessage());
+				}
+			}
+		}
+		this.plugin.getLogger().info("Replayed " + replayed + " journal records");
+		this.terminateJournal();
+		return new ArrayList<>(chestsByLocation.values());
+	}
+
+	//a crashed append may leave its record without the line break. the next record would be appended to that line and lost with it
+	private void terminateJournal() throws IOException {
+		try(FileChannel channel = FileChannel.open(this.journalPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			final ByteBuffer last = ByteBuffer.allocate(1);
+			if(channel.size() > 0 && channel.read(last, channel.size() - 1) == 1 && last.get(0) != '\n') {
+				this.plugin.getLogger().warning("Terminating the torn last record of " + this.journalPath);
+				channel.write(ByteBuffer.wrap(new byte[] {'\n'}), channel.size());
+			}
+		}
+	}
+
+	private void write(Collection<SpecialChest> chests, StorageFormat format, Path path) throws IOException {
+		final long start = System.nanoTime();
+		final Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		format.write(chests, temp);
+		replace(temp, path);
+		this.metrics.chestsWrite.recordSince(start);
+		this.metrics.chestsWriteBytes.add(Files.size(path));
+	}
+
+	public static void replace(Path temp, Path path) throws IOException {
+		try {
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch(AtomicMoveNotSupportedException e) {
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	//must be called from the main thread. the callback is called on the main thread once the records are written
+	public void appendPut(Collection<SpecialChest> chests, Consumer<Boolean> callback) {
+		this.append("put", chests, callback);
+	}
+
+	public void appendRemove(Collection<SpecialChest> chests, Consumer<Boolean> callback) {
+		this.append("remove", chests, callback);
+	}
+
+	private void append(String operation, Collection<SpecialChest> chests, Consumer<Boolean> callback) {
+		final List<SpecialChest> records = new ArrayList<>(chests);
+		this.executor.execute(() -> {
+			final long start = System.nanoTime();
+			boolean success;
+			try(BufferedWriter writer = Files.newBufferedWriter(this.journalPath, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+				for(SpecialChest chest : records) {
+					this.writeRecord(writer, operation, chest);
+				}
+				success = true;
+			} catch(IOException | RuntimeException e) {
+				this.plugin.getLogger().log(Level.SEVERE, "Could not append to " + this.journalPath, e);
+				success = false;
+				try {
+					this.terminateJournal();
+				} catch(IOException ignored) {
+					//replay terminates it on the next start
+				}
+			}
+			this.metrics.journalAppend.recordSince(start);
+			final boolean result = success;
+			final boolean compact = this.journalSize() > this.compactionThreshold && this.compactionRequested.compareAndSet(false, true);
+			if((callback != null || compact) && this.plugin.isEnabled()) {
+				Bukkit.getScheduler().runTask(this.plugin, () -> {
+					if(callback != null) {
+						callback.accept(result);
+					}
+					if(compact) {
+						this.save();
+					}
+				});
+			}
+		});
+	}
+
+	private void writeRecord(Writer writer, String operation, SpecialChest chest) throws IOException {
+		//a fresh non pretty printing json writer per record, because every record is a top level value on its own line
+		final JsonWriter jsonWriter = new JsonWriter(writer);
+		jsonWriter.beginObject().name("op").value(operation);
+		if(operation.equals("put")) {
+			jsonWriter.name("chest");
+			ADAPTER.write(jsonWriter, chest);
+		} else {
+			jsonWriter.name("world").value(chest.getWorldName())
+					.name("x").value(chest.getX())
+					.name("y").value(chest.getY())
+					.name("z").value(chest.getZ());
+		}
+		jsonWriter.endObject();
+		jsonWriter.flush();
+		writer.write('\n');
+	}
+
+	private long journalSize() {
+		try {
+			return Files.exists(this.journalPath) ? Files.size(this.journalPath) : 0;
+		} catch(IOException e) {
+			return 0;
+		}
+	}
+
+	//writes a full snapshot and truncates the journal. must be called from the main thread
+	//the callback is called on the main thread once the write has finished
+	public void save(Consumer<Boolean> callback) {
+		if(callback != null) {
+			this.pendingCallbacks.add(callback);
+		}
+		if(!this.saveScheduled) {
+			this.saveScheduled = true;
+			Bukkit.getScheduler().runTaskLater(this.plugin, this::flush, this.saveDelay);
+		}
+	}
+
+	public void save() {
+		this.save(null);
+	}
+
+	private void flush() {
+		if(!this.saveScheduled) {
+			return;
+		}
+		this.saveScheduled = false;
+		this.compactionRequested.set(false);
+		final List<SpecialChest> snapshot = new ArrayList<>(this.snapshotSupplier.get());
+		final List<Consumer<Boolean>> callbacks = this.pendingCallbacks;
+		this.pendingCallbacks = new ArrayList<>();
+		this.executor.execute(() -> {
+			final boolean success = this.tryWrite(snapshot);
+			if(!callbacks.isEmpty() && this.plugin.isEnabled()) {
+				Bukkit.getScheduler().runTask(this.plugin, () -> callbacks.forEach(callback -> callback.accept(success)));
+			}
+		});
+	}
+
+	private boolean tryWrite(Collection<SpecialChest> chests) {
+		try {
+			this.write(chests, this.format, this.path);
+			//every record in the journal was submitted before the snapshot was taken, so they are all part of it now
+			Files.deleteIfExists(this.journalPath);
+			return true;
+		} catch(IOException | RuntimeException e) {
+			this.plugin.getLogger().log(Level.SEVERE, "Could not write " + this.path, e);
+			return false;
+		}
+	}
+
+	//writes pending changes and waits for every queued write to finish. call from onDisable
+	public void close() {
+		final boolean pending = this.saveScheduled;
+		this.saveScheduled = false;
+		final List<Consumer<Boolean>> callbacks = this.pendingCallbacks;
+		this.pendingCallbacks = new ArrayList<>();
+		this.executor.shutdown();
+		try {
+			if(!this.executor.awaitTermination(30, TimeUnit.SECONDS)) {
+				this.plugin.getLogger().warning("Timed out waiting for pending writes of " + this.path);
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if(pending) {
+			final boolean success = this.tryWrite(this.snapshotSupplier.get());
+			callbacks.forEach(callback -> callback.accept(success));
+		}
+	}
+}
@@ -0,0 +1,717 @@
+/*
+ * Copyright (C) 2019  Selebrator
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.selebrator.lootcave.storage;
+
+import de.selebrator.lootcave.SpecialChest;
+import de.selebrator.lootcave.loot.LootPreroller;
+import de.selebrator.lootcave.metrics.Metrics;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.bukkit.scoreboard.Team;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/*
+ * Per player, per chest inventories that survive restarts.
+ * Every player has a file loot/<uuid>.yml, which is loaded when the player joins or opens a chest for the first time.
+ * Changed players are serialized on the main thread and written on a background thread in batches.
+ * Only inventories that are being viewed are kept as inventories. Closed ones are kept as their occupied slots.
+ *
+ * Loaded players form a bounded cache: when there are more entries than allowed, the least recently used players are evicted.
+ * Players are also evicted when they were not accessed for a while and, if configured, when they quit.
+ * Evicted players are written first, except for entries of chests in groups with the REGENERATE policy.
+ * Those are never written, so they are rolled again the next time the player opens the chest.
+ *
+ * Resetting a chest's inventories bumps the chest's epoch instead of touching any player file.
+ * Entries of an older epoch are ignored and dropped on the next write. Epochs are kept in loot/epochs.yml.
+ *
+ * Groups can change who owns the loot of their chests, see LootMode.
+ * Loot of a team is kept like the loot of a player, under a uuid derived from the team's name.
+ * Shared chests have no entries here at all, their loot is in the chest block and refilled when they are reset.
+ *
+ * With seeded loot, the loot of a chest is rolled from a seed derived from the chest, the owner and the chest's epoch.
+ * It can be rolled again at any time, so an entry that is closed unchanged is dropped instead of kept or written.
+ * The secret part of the seed is kept in loot/epochs.yml.
+ */
+public class PlayerLootStore {
+
+	private final Plugin plugin;
+	private final Metrics metrics;
+	private final Path folder;
+	private final Path epochsPath;
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+		final Thread thread = new Thread(runnable, "LootCave PlayerLootStore");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	//only touched on the main thread. access order, the least recently used player comes first
+	private final Map<UUID, PlayerLoot> players = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<String, Integer> epochs = new HashMap<>();
+	private boolean epochsDirty;
+	private long seed;
+	private boolean seeded;
+	private int entryCount;
+	private int maxEntries = Integer.MAX_VALUE;
+	private long expireAfterAccessMillis = Long.MAX_VALUE;
+	private boolean evictOnQuit;
+	private Map<String, EvictionPolicy> policyByGroup = Collections.emptyMap();
+	private Map<String, LootMode> modeByGroup = Collections.emptyMap();
+	//content of queued writes by path, until they are written
+	private final Map<Path, String> pendingWrites = new ConcurrentHashMap<>();
+	//token of the preload in flight by player. loading the player's loot otherwise drops it, as the preloaded content may be stale by then
+	private final Map<UUID, Object> preloads = new ConcurrentHashMap<>();
+	//viewer -> owner of the loot the viewer has open, the viewer itself or its team
+	private final Map<UUID, UUID> viewedOwners = new HashMap<>();
+	private BukkitTask flushTask;
+	private LootPreroller preroller;
+
+	public PlayerLootStore(Plugin plugin, Metrics metrics, Path folder) {
+		this.plugin = plugin;
+		this.metrics = metrics;
+		this.folder = folder;
+		this.epochsPath = folder.resolve("epochs.yml");
+	}
+
+	private static YamlConfiguration parse(String content) throws InvalidConfigurationException {
+		final YamlConfiguration configuration = new YamlConfiguration();
+		configuration.loadFromString(content);
+		return configuration;
+	}
+
+	public void load() throws IOException {
+		Files.createDirectories(this.folder);
+		this.epochs.clear();
+		this.epochsDirty = false;
+		if(Files.notExists(this.epochsPath)) {
+			this.seed = new SecureRandom().nextLong();
+			this.epochsDirty = true;
+			return;
+		}
+		try {
+			final YamlConfiguration configuration = parse(new String(Files.readAllBytes(this.epochsPath), StandardCharsets.UTF_8));
+			final Object seed = configuration.get("seed");
+			if(seed instanceof Number) {
+				this.seed = ((Number) seed).longValue();
+			} else {
+				this.seed = new SecureRandom().nextLong();
+				this.epochsDirty = true;
+			}
+			for(Map<?, ?> entry : configuration.getMapList("chests")) {
+				this.epochs.put(
+						SpecialChest.id((String) entry.get("world"), ((Number) entry.get("x")).intValue(), ((Number) entry.get("y")).intValue(), ((Number) entry.get("z")).intValue()),
+						((Number) entry.get("epoch")).intValue()
+				);
+			}
+		} catch(InvalidConfigurationException | RuntimeException e) {
+			throw new IOException("Could not read " + this.epochsPath, e);
+		}
+	}
+
+	public void configureCache(int maxEntries, long expireAfterAccessSeconds, boolean evictOnQuit, Map<String, EvictionPolicy> policyByGroup) {
+		this.maxEntries = maxEntries > 0 ? maxEntries : Integer.MAX_VALUE;
+		this.expireAfterAccessMillis = expireAfterAccessSeconds > 0 ? TimeUnit.SECONDS.toMillis(expireAfterAccessSeconds) : Long.MAX_VALUE;
+		this.evictOnQuit = evictOnQuit;
+		this.policyByGroup = policyByGroup;
+		this.enforceLimit();
+	}
+
+	public void configureModes(Map<String, LootMode> modeByGroup, boolean seeded) {
+		this.modeByGroup = modeByGroup;
+		this.seeded = seeded;
+	}
+
+	//takes loot rolled ahead of time from the preroller if there is any, null to always roll when opening
+	public void setPreroller(LootPreroller preroller) {
+		this.preroller = preroller;
+	}
+
+	public void start(long flushIntervalTicks) {
+		if(this.flushTask != null) {
+			this.flushTask.cancel();
+		}
+		final long interval = Math.max(1, flushIntervalTicks);
+		this.flushTask = Bukkit.getScheduler().runTaskTimer(this.plugin, this::flush, interval, interval);
+	}
+
+	private Path playerPath(UUID uuid) {
+		return this.folder.resolve(uuid + ".yml");
+	}
+
+	public int getEpoch(SpecialChest chest) {
+		return this.epochs.getOrDefault(chest.getId(), 0);
+	}
+
+	//every inventory of that chest is discarded. a shared chest is refilled if its chunk is loaded
+	public void reset(SpecialChest chest) {
+		this.epochs.merge(chest.getId(), 1, Integer::sum);
+		this.epochsDirty = true;
+		if(this.getMode(chest) == LootMode.SHARED) {
+			final World world = Bukkit.getWorld(chest.getWorldName());
+			if(world != null && world.isChunkLoaded(chest.getX() >> 4, chest.getZ() >> 4)) {
+				chest.fillBlockInventory(ThreadLocalRandom.current());
+			}
+		}
+	}
+
+	public void reset(Collection<SpecialChest> chests) {
+		chests.forEach(this::reset);
+	}
+
+	//returns the player's current entry of that chest, or null if the player did not open it since its last reset
+	private Entry getEntry(PlayerLoot loot, SpecialChest chest) {
+		loot.lastAccess = System.currentTimeMillis();
+		final Entry entry = loot.entries.get(chest.getId());
+		if(entry == null) {
+			return null;
+		}
+		if(entry.epoch != this.getEpoch(chest)) {
+			loot.entries.remove(chest.getId());
+			loot.dirty = true;
+			this.entryCount--;
+			return null;
+		}
+		return entry;
+	}
+
+	//whether the player emptied that chest since its last reset. neither creates an inventory nor looks at its contents
+	public boolean isLooted(HumanEntity player, SpecialChest chest) {
+		final Entry entry = this.getEntry(this.getLoot(this.getOwner(player, chest)), chest);
+		return entry != null && entry.looted;
+	}
+
+	//returns the player's inventory of that chest, or null if the player did not open it since its last reset
+	public Inventory getInventory(HumanEntity player, SpecialChest chest) {
+		return this.getInventory(player, this.getLoot(this.getOwner(player, chest)), chest);
+	}
+
+	private Inventory getInventory(HumanEntity player, PlayerLoot loot, SpecialChest chest) {
+		final Entry entry = this.getEntry(loot, chest);
+		if(entry == null) {
+			return null;
+		}
+		if(entry.inventory == null) {
+			entry.inventory = chest.createInventory(player, entry.getContents());
+			entry.slots = null;
+			entry.items = null;
+		}
+		return entry.inventory;
+	}
+
+	//returns the player's inventory of that chest, rolling new loot if necessary. remembers the inventory as being viewed
+	public Inventory getOrCreateInventory(HumanEntity player, SpecialChest chest, Random random) {
+		final UUID owner = this.getOwner(player, chest);
+		final PlayerLoot loot = this.getLoot(owner);
+		Inventory inventory = this.getInventory(player, loot, chest);
+		if(inventory == null) {
+			final long start = System.nanoTime();
+			final Entry entry;
+			if(this.seeded) {
+				//without luck, which may change between rolls of the same seed
+				inventory = chest.generateInventory(player, new Random(this.seed(chest, owner)), 0);
+				entry = new Entry(this.getEpoch(chest), inventory, this.getPolicy(chest) == EvictionPolicy.PERSIST);
+				entry.rolled = copy(inventory.getContents());
+			} else {
+				final ItemStack[] prerolled = this.preroller == null ? null : this.preroller.take(chest, player);
+				inventory = prerolled != null ? chest.createInventory(player, prerolled) : chest.generateInventory(player, random);
+				entry = new Entry(this.getEpoch(chest), inventory, this.getPolicy(chest) == EvictionPolicy.PERSIST);
+			}
+			this.metrics.lootGeneration.recordSince(start);
+			loot.entries.put(chest.getId(), entry);
+			loot.dirty = true;
+			this.entryCount++;
+		}
+		this.stopViewing(player.getUniqueId(), null);
+		loot.viewers.put(player.getUniqueId(), chest.getId());
+		this.viewedOwners.put(player.getUniqueId(), owner);
+		this.enforceLimit();
+		return inventory;
+	}
+
+	//the same for the same chest, owner and epoch, so the loot can be rolled again instead of being kept
+	private long seed(SpecialChest chest, UUID owner) {
+		long seed = this.seed;
+		seed = mix(seed ^ chest.getId().hashCode());
+		seed = mix(seed ^ owner.getMostSignificantBits());
+		seed = mix(seed ^ owner.getLeastSignificantBits());
+		return mix(seed ^ this.getEpoch(chest));
+	}
+
+	//the finalizer of splitmix64
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	private static ItemStack[] copy(ItemStack[] contents) {
+		final ItemStack[] copy = new ItemStack[contents.length];
+		for(int i = 0; i < contents.length; i++) {
+			copy[i] = contents[i] == null ? null : contents[i].clone();
+		}
+		return copy;
+	}
+
+	//the uuid the loot of that chest is kept under for that player
+	private UUID getOwner(HumanEntity player, SpecialChest chest) {
+		if(this.getMode(chest) == LootMode.PER_TEAM) {
+			final Team team = Bukkit.getScoreboardManager().getMainScoreboard().getEntryTeam(player.getName());
+			if(team != null) {
+				return UUID.nameUUIDFromBytes(("team:" + team.getName()).getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		return player.getUniqueId();
+	}
+
+	//the most shared mode of the chest's groups
+	public LootMode getMode(SpecialChest chest) {
+		LootMode mode = LootMode.PER_PLAYER;
+		for(String group : chest.getGroups()) {
+			final LootMode groupMode = this.modeByGroup.get(group);
+			if(groupMode != null && groupMode.ordinal() > mode.ordinal()) {
+				mode = groupMode;
+			}
+		}
+		return mode;
+	}
+
+	private static boolean isEmpty(ItemStack[] contents) {
+		for(ItemStack item : contents) {
+			if(item != null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private EvictionPolicy getPolicy(SpecialChest chest) {
+		for(String group : chest.getGroups()) {
+			if(this.policyByGroup.get(group) == EvictionPolicy.REGENERATE) {
+				return EvictionPolicy.REGENERATE;
+			}
+		}
+		return EvictionPolicy.PERSIST;
+	}
+
+	public int getEntryCount() {
+		return this.entryCount;
+	}
+
+	public int getPlayerCount() {
+		return this.players.size();
+	}
+
+	//a rough estimate of the heap used by the loaded entries. an open inventory costs a lot more than the items of a closed one
+	public long estimateHeapBytes() {
+		long bytes = 0;
+		for(PlayerLoot loot : this.players.values()) {
+			bytes += 200;
+			for(Entry entry : loot.entries.values()) {
+				bytes += entry.inventory != null ? 2400 : entry.items == null ? 100 : 100 + 150 * entry.items.length;
+			}
+		}
+		return bytes;
+	}
+
+	//the contents of an inventory only change while it is viewed, so this is the only place its looted flag needs to be updated
+	public void onClose(HumanEntity player, Inventory inventory) {
+		this.stopViewing(player.getUniqueId(), inventory);
+	}
+
+	//null stops viewing whatever inventory the viewer has open
+	private void stopViewing(UUID viewer, Inventory inventory) {
+		final UUID owner = this.viewedOwners.get(viewer);
+		if(owner == null) {
+			return;
+		}
+		final PlayerLoot loot = this.players.get(owner);
+		final Entry entry = loot.entries.get(loot.viewers.get(viewer));
+		if(inventory != null && (entry == null || entry.inventory != inventory)) {
+			return;
+		}
+		if(entry != null && entry.inventory != null) {
+			entry.looted = isEmpty(entry.inventory.getStorageContents());
+		}
+		this.viewedOwners.remove(viewer);
+		final String id = loot.viewers.remove(viewer);
+		if(entry != null && entry.inventory != null && !loot.viewers.containsValue(id)) {
+			//seeded loot nobody changed is rolled again next time
+			if(entry.rolled != null && Arrays.equals(entry.rolled, entry.inventory.getContents())) {
+				loot.entries.remove(id);
+				this.entryCount--;
+			} else {
+				entry.rolled = null;
+				entry.setContents(entry.inventory.getContents());
+				entry.inventory = null;
+			}
+		}
+		loot.dirty = true;
+		loot.lastAccess = System.currentTimeMillis();
+	}
+
+	public void onQuit(UUID uuid) {
+		this.stopViewing(uuid, null);
+		final PlayerLoot loot = this.players.get(uuid);
+		if(loot != null) {
+			loot.lastAccess = System.currentTimeMillis();
+			if(this.evictOnQuit) {
+				this.players.remove(uuid);
+				this.evict(uuid, loot);
+			}
+		}
+	}
+
+	//evicts every player with loot in that world, so none of it stays in memory while the world is unloaded. it is read again when needed
+	public void releaseWorld(String worldName) {
+		final String prefix = worldName + ':';
+		final Iterator<Map.Entry<UUID, PlayerLoot>> iterator = this.players.entrySet().iterator();
+		while(iterator.hasNext()) {
+			final Map.Entry<UUID, PlayerLoot> player = iterator.next();
+			final PlayerLoot loot = player.getValue();
+			if(loot.viewers.isEmpty() && loot.entries.keySet().stream().anyMatch(id -> id.startsWith(prefix))) {
+				iterator.remove();
+				this.evict(player.getKey(), loot);
+			}
+		}
+	}
+
+	//the caller removes the player from the map
+	private void evict(UUID uuid, PlayerLoot loot) {
+		this.entryCount -= loot.entries.size();
+		if(loot.dirty && !loot.unreadable) {
+			final Path path = this.playerPath(uuid);
+			final String content = this.serialize(loot);
+			this.pendingWrites.put(path, content);
+			this.executor.execute(() -> this.write(path, content));
+		}
+	}
+
+	//evicts the least recently used players until the entry limit is kept. players viewing a chest are never evicted
+	private void enforceLimit() {
+		if(this.entryCount <= this.maxEntries) {
+			return;
+		}
+		final Iterator<Map.Entry<UUID, PlayerLoot>> iterator = this.players.entrySet().iterator();
+		while(this.entryCount > this.maxEntries && iterator.hasNext()) {
+			final Map.Entry<UUID, PlayerLoot> player = iterator.next();
+			if(player.getValue().viewers.isEmpty()) {
+				iterator.remove();
+				this.evict(player.getKey(), player.getValue());
+			}
+		}
+	}
+
+	//reads the player's file in the background, so opening a chest later does not have to
+	public void preload(UUID uuid) {
+		if(this.players.containsKey(uuid)) {
+			return;
+		}
+		final Path path = this.playerPath(uuid);
+		final Object token = new Object();
+		this.preloads.put(uuid, token);
+		this.executor.execute(() -> {
+			try {
+				if(Files.notExists(path)) {
+					this.preloads.remove(uuid, token);
+					return;
+				}
+				final String content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+				if(this.plugin.isEnabled()) {
+					Bukkit.getScheduler().runTask(this.plugin, () -> {
+						//the loot may have been loaded, changed and evicted since the file was read
+						if(this.preloads.remove(uuid, token) && !this.players.containsKey(uuid)) {
+							final PlayerLoot loot = this.parseLoot(uuid, content);
+							this.players.put(uuid, loot);
+							this.entryCount += loot.entries.size();
+							this.enforceLimit();
+						}
+					});
+				}
+			} catch(IOException e) {
+				this.preloads.remove(uuid, token);
+				this.plugin.getLogger().log(Level.WARNING, "Could not read " + path, e);
+			}
+		});
+	}
+
+	private PlayerLoot getLoot(UUID uuid) {
+		PlayerLoot loot = this.players.get(uuid);
+		if(loot != null) {
+			this.metrics.playerLootHits.increment();
+		} else {
+			this.metrics.playerLootMisses.increment();
+			this.preloads.remove(uuid);
+			loot = this.readLoot(uuid);
+			this.players.put(uuid, loot);
+			this.entryCount += loot.entries.size();
+		}
+		return loot;
+	}
+
+	//a write of the file that is still queued has the newest content. otherwise the file is read right away, without waiting for other writes
+	private PlayerLoot readLoot(UUID uuid) {
+		final Path path = this.playerPath(uuid);
+		String content = this.pendingWrites.get(path);
+		try {
+			if(content == null) {
+				content = Files.exists(path) ? new String(Files.readAllBytes(path), StandardCharsets.UTF_8) : null;
+			}
+			return content == null ? new PlayerLoot() : this.parseLoot(uuid, content);
+		} catch(IOException e) {
+			this.plugin.getLogger().log(Level.WARNING, "Could not read " + path + ", it will not be written until the player is read again", e);
+			final PlayerLoot loot = new PlayerLoot();
+			loot.unreadable = true;
+			return loot;
+		}
+	}
+
+	private PlayerLoot parseLoot(UUID uuid, String content) {
+		final PlayerLoot loot = new PlayerLoot();
+		try {
+			final YamlConfiguration configuration = parse(content);
+			for(Map<?, ?> chest : configuration.getMapList("chests")) {
+				final String id = SpecialChest.id((String) chest.get("world"), ((Number) chest.get("x")).intValue(), ((Number) chest.get("y")).intValue(), ((Number) chest.get("z")).intValue());
+				final int epoch = ((Number) chest.get("epoch")).intValue();
+				//entries of chests that were reset since are dropped right away
+				if(epoch == this.epochs.getOrDefault(id, 0)) {
+					final List<?> items = (List<?>) chest.get("contents");
+					final ItemStack[] contents = new ItemStack[items.size()];
+					for(int i = 0; i < contents.length; i++) {
+						contents[i] = (ItemStack) items.get(i);
+					}
+					loot.entries.put(id, new Entry(epoch, contents, true));
+				}
+			}
+		} catch(InvalidConfigurationException | RuntimeException e) {
+			this.plugin.getLogger().log(Level.WARNING, "Could not read the loot of " + uuid + ", its file will not be written until the player is read again", e);
+			loot.unreadable = true;
+		}
+		return loot;
+	}
+
+	//the inverse of SpecialChest.id
+	private static Map<String, Object> position(String id) {
+		final int worldEnd = id.lastIndexOf(':');
+		final String[] coordinates = id.substring(worldEnd + 1).split(",");
+		final Map<String, Object> position = new LinkedHashMap<>();
+		position.put("world", id.substring(0, worldEnd));
+		position.put("x", Integer.parseInt(coordinates[0]));
+		position.put("y", Integer.parseInt(coordinates[1]));
+		position.put("z", Integer.parseInt(coordinates[2]));
+		return position;
+	}
+
+	private String serialize(PlayerLoot loot) {
+		final List<Map<String, Object>> chests = new ArrayList<>(loot.entries.size());
+		loot.entries.forEach((id, entry) -> {
+			if(!entry.persistent || entry.epoch != this.epochs.getOrDefault(id, 0)) {
+				return;
+			}
+			final Map<String, Object> chest = position(id);
+			chest.put("epoch", entry.epoch);
+			chest.put("contents", Arrays.asList(entry.getContents()));
+			chests.add(chest);
+		});
+		final YamlConfiguration configuration = new YamlConfiguration();
+		configuration.set("chests", chests);
+		return configuration.saveToString();
+	}
+
+	private String serializeEpochs() {
+		final List<Map<String, Object>> chests = new ArrayList<>(this.epochs.size());
+		this.epochs.forEach((id, epoch) -> {
+			final Map<String, Object> chest = position(id);
+			chest.put("epoch", epoch);
+			chests.add(chest);
+		});
+		final YamlConfiguration configuration = new YamlConfiguration();
+		configuration.set("seed", this.seed);
+		configuration.set("chests", chests);
+		return configuration.saveToString();
+	}
+
+	//serializes every changed player on the main thread and writes them in one background batch. evicts expired players
+	public void flush() {
+		final Map<Path, String> batch = new HashMap<>();
+		if(this.epochsDirty) {
+			this.epochsDirty = false;
+			batch.put(this.epochsPath, this.serializeEpochs());
+		}
+		final long now = System.currentTimeMillis();
+		final Iterator<Map.Entry<UUID, PlayerLoot>> iterator = this.players.entrySet().iterator();
+		while(iterator.hasNext()) {
+			final Map.Entry<UUID, PlayerLoot> player = iterator.next();
+			final PlayerLoot loot = player.getValue();
+			//an open inventory may still change without us noticing, keep it dirty
+			if(loot.dirty && !loot.unreadable) {
+				loot.dirty = !loot.viewers.isEmpty();
+				batch.put(this.playerPath(player.getKey()), this.serialize(loot));
+			}
+			if(loot.viewers.isEmpty() && now - loot.lastAccess > this.expireAfterAccessMillis) {
+				iterator.remove();
+				this.entryCount -= loot.entries.size();
+			}
+		}
+		if(!batch.isEmpty()) {
+			this.pendingWrites.putAll(batch);
+			this.executor.execute(() -> batch.forEach(this::write));
+		}
+	}
+
+	private void write(Path path, String content) {
+		try {
+			final Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+			Files.write(temp, content.getBytes(StandardCharsets.UTF_8));
+			ChestStore.replace(temp, path);
+		} catch(IOException e) {
+			this.plugin.getLogger().log(Level.SEVERE, "Could not write " + path, e);
+		} finally {
+			//unless a newer write of the same file was queued meanwhile
+			this.pendingWrites.remove(path, content);
+		}
+	}
+
+	//writes everything and waits for it. call from onDisable
+	public void close() {
+		if(this.flushTask != null) {
+			this.flushTask.cancel();
+			this.flushTask = null;
+		}
+		new ArrayList<>(this.viewedOwners.keySet()).forEach(viewer -> this.stopViewing(viewer, null));
+		this.expireAfterAccessMillis = -1;
+		this.flush();
+		this.executor.shutdown();
+		try {
+			if(!this.executor.awaitTermination(30, TimeUnit.SECONDS)) {
+				this.plugin.getLogger().warning("Timed out waiting for pending writes of player loot");
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static class PlayerLoot {
+		private final Map<String, Entry> entries = new HashMap<>();
+		private boolean dirty;
+		//the player's file could not be read. it is never written, so it is not replaced by what little is known
+		private boolean unreadable;
+		private long lastAccess = System.currentTimeMillis();
+		//viewer -> id of the chest the viewer has open. more than one player views the loot of a team
+		private final Map<UUID, String> viewers = new HashMap<>();
+	}
+
+	private static class Entry {
+		private final int epoch;
+		private final boolean persistent;
+		//only while the inventory is viewed
+		private Inventory inventory;
+		//otherwise the occupied slots and their items, both null if there are none
+		private byte[] slots;
+		private ItemStack[] items;
+		private int size;
+		//no items left. only changes when the inventory is closed
+		private boolean looted;
+		//seeded loot as rolled, until the inventory is closed changed
+		private ItemStack[] rolled;
+
+		private Entry(int epoch, Inventory inventory, boolean persistent) {
+			this.epoch = epoch;
+			this.inventory = inventory;
+			this.persistent = persistent;
+		}
+
+		private Entry(int epoch, ItemStack[] contents, boolean persistent) {
+			this.epoch = epoch;
+			this.persistent = persistent;
+			this.setContents(contents);
+			this.looted = this.items == null;
+		}
+
+		private void setContents(ItemStack[] contents) {
+			this.size = contents.length;
+			int count = 0;
+			for(ItemStack item : contents) {
+				if(item != null) {
+					count++;
+				}
+			}
+			if(count == 0) {
+				this.slots = null;
+				this.items = null;
+				return;
+			}
+			this.slots = new byte[count];
+			this.items = new ItemStack[count];
+			int i = 0;
+			for(int slot = 0; slot < contents.length; slot++) {
+				if(contents[slot] != null) {
+					this.slots[i] = (byte) slot;
+					this.items[i++] = contents[slot];
+				}
+			}
+		}
+
+		private ItemStack[] getContents() {
+			if(this.inventory != null) {
+				return this.inventory.getContents();
+			}
+			final ItemStack[] contents = new ItemStack[this.size];
+			if(this.items != null) {
+				for(int i = 0; i < this.items.length; i++) {
+					contents[this.slots[i]] = this.items[i];
+				}
+			}
+			return contents;
+		}
+	}
+
+	//ordered from least to most shared
+	public enum LootMode {
+		//every player has their own inventory
+		PER_PLAYER,
+		//the members of a scoreboard team share an inventory, players without a team have their own
+		PER_TEAM,
+		//the chest block's own inventory, filled when the chest is placed or reset. first come, first served
+		SHARED
+	}
+
+	public enum EvictionPolicy {
+		//written to the player's file and restored when needed again
+		PERSIST,
+		//dropped, the loot is rolled again on the next open
+		REGENERATE
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2019  Selebrator
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.selebrator.lootcave.storage;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import de.selebrator.lootcave.SpecialChest;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+
+public enum StorageFormat {
+	//pretty printed, meant to be edited by hand
+	JSON("chests.json") {
+		private final Gson gson = new GsonBuilder()
+				.setPrettyPrinting()
+				.registerTypeAdapter(SpecialChest.class, new SpecialChest.Adapter())
+				.create();
+
+		@Override
+		public List<SpecialChest.Builder> read(Path path) throws IOException {
+			return ChestLoader.load(path);
+		}
+
+		@Override
+		public void write(Collection<SpecialChest> chests, Path path) throws IOException {
+			try(BufferedWriter bufferedWriter = Files.newBufferedWriter(path)) {
+				this.gson.toJson(chests, bufferedWriter);
+			}
+		}
+	},
+	//compact and fast to load, see BinaryChestFormat
+	BINARY("chests.bin") {
+		@Override
+		public List<SpecialChest.Builder> read(Path path) throws IOException {
+			return BinaryChestFormat.load(path);
+		}
+
+		@Override
+		public void write(Collection<SpecialChest> chests, Path path) throws IOException {
+			try(OutputStream outputStream = Files.newOutputStream(path)) {
+				BinaryChestFormat.write(chests, outputStream);
+			}
+		}
+	};
+
+	private final String fileName;
+
+	StorageFormat(String fileName) {
+		this.fileName = fileName;
+	}
+
+	public String getFileName() {
+		return this.fileName;
+	}
+
+	//only parses the file, so it may be called from any thread. see ChestLoader.build
+	public abstract List<SpecialChest.Builder> read(Path path) throws IOException;
+
+	public abstract void write(Collection<SpecialChest> chests, Path path) throws IOException;
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2019  Selebrator
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.selebrator.lootcave.util;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/*
+ * Open addressing hash map from primitive long keys to objects.
+ * Linear probing, backward shift deletion, no boxing and no per-entry allocation.
+ * null values are not supported, get returns null for absent keys.
+ */
+public class LongObjectHashMap<V> {
+
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private long[] keys;
+	private Object[] values;
+	private int mask;
+	private int size;
+	private int resizeThreshold;
+
+	public LongObjectHashMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public LongObjectHashMap(int expectedSize) {
+		this.allocate(tableSizeFor(expectedSize));
+	}
+
+	private static int tableSizeFor(int expectedSize) {
+		int capacity = DEFAULT_CAPACITY;
+		while(capacity * LOAD_FACTOR < expectedSize) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private static int hash(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ (key >>> 32));
+	}
+
+	private void allocate(int capacity) {
+		this.keys = new long[capacity];
+		this.values = new Object[capacity];
+		this.mask = capacity - 1;
+		this.resizeThreshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	private int indexOf(long key) {
+		int index = hash(key) & this.mask;
+		while(this.values[index] != null) {
+			if(this.keys[index] == key) {
+				return index;
+			}
+			index = (index + 1) & this.mask;
+		}
+		return -1;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		int index = hash(key) & this.mask;
+		Object value;
+		while((value = this.values[index]) != null) {
+			if(this.keys[index] == key) {
+				return (V) value;
+			}
+			index = (index + 1) & this.mask;
+		}
+		return null;
+	}
+
+	public boolean containsKey(long key) {
+		return this.indexOf(key) != -1;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		if(value == null) {
+			throw new NullPointerException("value");
+		}
+		int index = hash(key) & this.mask;
+		while(this.values[index] != null) {
+			if(this.keys[index] == key) {
+				final V previous = (V) this.values[index];
+				this.values[index] = value;
+				return previous;
+			}
+			index = (index + 1) & this.mask;
+		}
+		this.keys[index] = key;
+		this.values[index] = value;
+		if(++this.size > this.resizeThreshold) {
+			this.rehash(this.keys.length << 1);
+		}
+		return null;
+	}
+
+	public V putIfAbsent(long key, V value) {
+		final V current = this.get(key);
+		if(current != null) {
+			return current;
+		}
+		this.put(key, value);
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		int index = this.indexOf(key);
+		if(index == -1) {
+			return null;
+		}
+		final V previous = (V) this.values[index];
+		this.values[index] = null;
+		this.size--;
+
+		//shift following entries back so that no probe sequence is interrupted
+		int gap = index;
+		index = (index + 1) & this.mask;
+		while(this.values[index] != null) {
+			final int home = hash(this.keys[index]) & this.mask;
+			if(((index - home) & this.mask) >= ((index - gap) & this.mask)) {
+				this.keys[gap] = this.keys[index];
+				this.values[gap] = this.values[index];
+				this.values[index] = null;
+				gap = index;
+			}
+			index = (index + 1) & this.mask;
+		}
+		return previous;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	//a shallow copy, costs two array copies
+	public LongObjectHashMap<V> copy() {
+		final LongObjectHashMap<V> copy = new LongObjectHashMap<>(0);
+		copy.keys = this.keys.clone();
+		copy.values = this.values.clone();
+		copy.mask = this.mask;
+		copy.size = this.size;
+		copy.resizeThreshold = this.resizeThreshold;
+		return copy;
+	}
+
+	public void clear() {
+		Arrays.fill(this.values, null);
+		this.size = 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	public void forEachValue(Consumer<? super V> action) {
+		for(Object value : this.values) {
+			if(value != null) {
+				action.accept((V) value);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public void forEach(Entry<? super V> action) {
+		for(int i = 0; i < this.values.length; i++) {
+			if(this.values[i] != null) {
+				action.accept(this.keys[i], (V) this.values[i]);
+			}
+		}
+	}
+
+	private void rehash(int capacity) {
+		final long[] oldKeys = this.keys;
+		final Object[] oldValues = this.values;
+		this.allocate(capacity);
+		for(int i = 0; i < oldValues.length; i++) {
+			if(oldValues[i] != null) {
+				int index = hash(oldKeys[i]) & this.mask;
+				while(this.values[index] != null) {
+					index = (index + 1) & this.mask;
+				}
+				this.keys[index] = oldKeys[i];
+				this.values[index] = oldValues[i];
+			}
+		}
+	}
+
+	@FunctionalInterface
+	public interface Entry<V> {
+		void accept(long key, V value);
+	}
+}